@@ -0,0 +1,39 @@
+package org.wstone.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+// turning a frame into the image the window draws, see HeatRenderer. runs headless, it never opens a window
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+    @Param({"200x100", "1000x1000", "4000x4000"})
+    public String size;
+
+    private HeatRenderer renderer;
+    private double[] frame;
+
+    @Setup
+    public void setUp(){
+        String[] dims = size.split("x");
+        int height = Integer.parseInt(dims[0]);
+        int width = Integer.parseInt(dims[1]);
+        renderer = new HeatRenderer(height, width, 1000.0, 800.0);
+        frame = new double[width * height];
+        // spread over the whole color table so the lookups are not all the same
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = ThreadLocalRandom.current().nextDouble(0.0, 1000.0);
+        }
+    }
+
+    @Benchmark
+    public Object render(){
+        return renderer.render(frame);
+    }
+}
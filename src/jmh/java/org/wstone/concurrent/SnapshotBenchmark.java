@@ -0,0 +1,48 @@
+package org.wstone.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * what a snapshot costs the simulation thread: copying the plate out of the grid and publishing it through the
+ * FrameBuffer the window paints from. the publish group has a painting thread taking frames at the same time, so the
+ * swap is measured with the reader actually competing for the middle buffer.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotBenchmark {
+    @Param({"200x100", "1000x1000", "4000x4000"})
+    public String size;
+
+    private FlatGrid grid;
+    private FrameBuffer frames;
+
+    @Setup
+    public void setUp(){
+        String[] dims = size.split("x");
+        int height = Integer.parseInt(dims[0]);
+        int width = Integer.parseInt(dims[1]);
+        grid = new FlatGrid(height, width, 1.25, 1.0, 1.75);
+        frames = new FrameBuffer(height, width);
+    }
+
+    @Benchmark
+    @Group("publish")
+    @GroupThreads(1)
+    public void copyAndPublish(){
+        grid.copyTemperatures(frames.backBuffer());
+        frames.publish();
+    }
+
+    @Benchmark
+    @Group("publish")
+    @GroupThreads(1)
+    public double[] paint(){
+        return frames.latest();
+    }
+}
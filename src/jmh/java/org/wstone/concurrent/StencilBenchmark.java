@@ -0,0 +1,54 @@
+package org.wstone.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * one time step of the whole plate, the same way Alloy.simulateHeatTransfer does it: every band of a BandRunner
+ * sweeps its rows, then the buffers are swapped. size is height x width.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StencilBenchmark {
+    @Param({"200x100", "1000x1000", "4000x4000"})
+    public String size;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    @Param({"IN_PLACE", "DOUBLE_BUFFERED"})
+    public StepMode mode;
+
+    private FlatGrid grid;
+    private BandRunner runner;
+    private BandTask step;
+
+    @Setup
+    public void setUp(){
+        String[] dims = size.split("x");
+        int height = Integer.parseInt(dims[0]);
+        int width = Integer.parseInt(dims[1]);
+        grid = new FlatGrid(height, width, 1.25, 1.0, 1.75, mode);
+        grid.setTemperature(0, 0, 1000.0);
+        grid.setTemperature(width - 1, height - 1, 800.0);
+        runner = BandRunner.create(ExecutionMode.PERSISTENT_WORKERS, height, threads, WaitStrategy.spinThenPark(1 << 10));
+        step = (band, startRow, endRow) -> grid.computeHeatTransfer(startRow, endRow);
+    }
+
+    @TearDown
+    public void tearDown(){
+        runner.close();
+    }
+
+    @Benchmark
+    public double step() throws InterruptedException {
+        double residual = runner.run(step);
+        grid.swapBuffers();
+        return residual;
+    }
+}
@@ -0,0 +1,101 @@
+package org.wstone.distributed;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * the per step messages through PacketCodec: the organizer's HALO_ROWS and the server's STEP_ACK, each carrying two
+ * rows of width doubles, plus a whole band for INIT_BAND. encoding goes into a reused direct buffer the way
+ * FrameWriter does it, decoding reads a frame that was encoded once in setUp, into new arrays like FrameReader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PacketCodecBenchmark {
+    @Param({"100", "1000", "4000"})
+    public int width;
+
+    // rows in the INIT_BAND
+    private static final int BAND_ROWS = 100;
+
+    private Packet halo;
+    private Packet ack;
+    private Packet band;
+    private ByteBuffer out;
+    private ByteBuffer encodedHalo;
+    private ByteBuffer encodedAck;
+    private ByteBuffer encodedBand;
+
+    @Setup
+    public void setUp(){
+        double[] above = new double[width];
+        double[] below = new double[width];
+        for (int x = 0; x < width; x++) {
+            above[x] = x;
+            below[x] = width - x;
+        }
+        halo = Packet.haloRows(above, below);
+        ack = Packet.stepAck(1e-3, 1000, 4000, 2000, 300, above, below);
+        double[] temperatures = new double[width * BAND_ROWS];
+        double[] coefficients = new double[width * BAND_ROWS];
+        band = Packet.initBand(width, 2 * BAND_ROWS, 0, BAND_ROWS, temperatures, coefficients);
+        out = ByteBuffer.allocateDirect(PacketCodec.encodedSize(band)).order(ByteOrder.LITTLE_ENDIAN);
+        encodedHalo = encoded(halo);
+        encodedAck = encoded(ack);
+        encodedBand = encoded(band);
+    }
+
+    private static ByteBuffer encoded(Packet p){
+        ByteBuffer buf = ByteBuffer.allocateDirect(PacketCodec.encodedSize(p)).order(ByteOrder.LITTLE_ENDIAN);
+        PacketCodec.encode(p, buf);
+        // decode starts after the length field, FrameReader has already read it
+        return buf.flip().position(Integer.BYTES);
+    }
+
+    private ByteBuffer encode(Packet p){
+        out.clear();
+        PacketCodec.encode(p, out);
+        return out;
+    }
+
+    private static Packet decode(ByteBuffer encoded) throws IOException {
+        return PacketCodec.decode(encoded.duplicate().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    @Benchmark
+    public ByteBuffer encodeHalo(){
+        return encode(halo);
+    }
+
+    @Benchmark
+    public Packet decodeHalo() throws IOException {
+        return decode(encodedHalo);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeAck(){
+        return encode(ack);
+    }
+
+    @Benchmark
+    public Packet decodeAck() throws IOException {
+        return decode(encodedAck);
+    }
+
+    @Benchmark
+    public ByteBuffer encodeBand(){
+        return encode(band);
+    }
+
+    @Benchmark
+    public Packet decodeBand() throws IOException {
+        return decode(encodedBand);
+    }
+}
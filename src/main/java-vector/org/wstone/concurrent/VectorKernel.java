@@ -0,0 +1,93 @@
+package org.wstone.concurrent;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * the stencil on jdk.incubator.vector, one DoubleVector of cells per instruction. only compiled with the `vector`
+ * maven profile, StencilKernel.fastest() falls back to ScalarKernel when the class or the incubator module is missing.
+ *
+ * columns 0 and width - 1 go through ScalarKernel.row, they have fewer neighbors and hold both heat sources.
+ * everything in between is done with vectors: 8 neighbors on interior rows, 5 on the top and bottom row, and the
+ * end of a row that does not fill a whole vector is done with a mask. the terms are added in the same order as
+ * ScalarKernel so the results are identical.
+ */
+public class VectorKernel implements StencilKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public double sweep(double[] src, double[] dst, double[] coef, int width, int height, int startRow, int endRow){
+        double residual = 0.0;
+        for (int y = startRow; y < endRow; y++) {
+            int rowStart = y * width;
+            if (width < 3) {
+                residual = Math.max(residual, ScalarKernel.row(src, dst, coef, rowStart, width, y, 0, width, width, height));
+                continue;
+            }
+            residual = Math.max(residual, ScalarKernel.row(src, dst, coef, rowStart, width, y, 0, 1, width, height));
+            residual = Math.max(residual, row(src, dst, coef, rowStart, width, y > 0, y < height - 1, width - 1));
+            residual = Math.max(residual, ScalarKernel.row(src, dst, coef, rowStart, width, y, width - 1, width, width, height));
+        }
+        return residual;
+    }
+
+    // cells [1, end) of one row, none of them are on the left or right border. returns the largest absolute change
+    private static double row(double[] src, double[] dst, double[] coef, int rowStart, int stride,
+                            boolean above, boolean below, int end){
+        double neighborCount = 2 + (above ? 3 : 0) + (below ? 3 : 0);
+        int lanes = SPECIES.length();
+        DoubleVector residual = DoubleVector.zero(SPECIES);
+        int x = 1;
+        for (; x + lanes <= end; x += lanes) {
+            int i = rowStart + x;
+            DoubleVector cur = DoubleVector.fromArray(SPECIES, src, i);
+            DoubleVector k = DoubleVector.fromArray(SPECIES, coef, i);
+            DoubleVector total = DoubleVector.zero(SPECIES);
+            if (above) {
+                total = total.add(DoubleVector.fromArray(SPECIES, src, i - stride - 1).sub(cur).mul(k));
+                total = total.add(DoubleVector.fromArray(SPECIES, src, i - stride).sub(cur).mul(k));
+                total = total.add(DoubleVector.fromArray(SPECIES, src, i - stride + 1).sub(cur).mul(k));
+            }
+            total = total.add(DoubleVector.fromArray(SPECIES, src, i - 1).sub(cur).mul(k));
+            total = total.add(DoubleVector.fromArray(SPECIES, src, i + 1).sub(cur).mul(k));
+            if (below) {
+                total = total.add(DoubleVector.fromArray(SPECIES, src, i + stride - 1).sub(cur).mul(k));
+                total = total.add(DoubleVector.fromArray(SPECIES, src, i + stride).sub(cur).mul(k));
+                total = total.add(DoubleVector.fromArray(SPECIES, src, i + stride + 1).sub(cur).mul(k));
+            }
+            DoubleVector change = total.div(neighborCount);
+            cur.add(change).intoArray(dst, i);
+            residual = residual.max(change.abs());
+        }
+        if (x < end) {
+            VectorMask<Double> m = SPECIES.indexInRange(x, end);
+            int i = rowStart + x;
+            DoubleVector cur = DoubleVector.fromArray(SPECIES, src, i, m);
+            DoubleVector k = DoubleVector.fromArray(SPECIES, coef, i, m);
+            DoubleVector total = DoubleVector.zero(SPECIES);
+            if (above) {
+                total = total.add(DoubleVector.fromArray(SPECIES, src, i - stride - 1, m).sub(cur).mul(k));
+                total = total.add(DoubleVector.fromArray(SPECIES, src, i - stride, m).sub(cur).mul(k));
+                total = total.add(DoubleVector.fromArray(SPECIES, src, i - stride + 1, m).sub(cur).mul(k));
+            }
+            total = total.add(DoubleVector.fromArray(SPECIES, src, i - 1, m).sub(cur).mul(k));
+            total = total.add(DoubleVector.fromArray(SPECIES, src, i + 1, m).sub(cur).mul(k));
+            if (below) {
+                total = total.add(DoubleVector.fromArray(SPECIES, src, i + stride - 1, m).sub(cur).mul(k));
+                total = total.add(DoubleVector.fromArray(SPECIES, src, i + stride, m).sub(cur).mul(k));
+                total = total.add(DoubleVector.fromArray(SPECIES, src, i + stride + 1, m).sub(cur).mul(k));
+            }
+            // lanes outside the mask load as zero, so their change is zero too
+            DoubleVector change = total.div(neighborCount);
+            cur.add(change).intoArray(dst, i, m);
+            residual = residual.max(change.abs());
+        }
+        return residual.reduceLanes(VectorOperators.MAX);
+    }
+
+    // reads neighbors from src while writing dst, so it can not step in place
+    @Override
+    public boolean requiresDoubleBuffering(){ return true;}
+}
@@ -0,0 +1,45 @@
+package org.wstone.concurrent;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/*
+ * LaneKernel on jdk.incubator.vector, one DoubleVector of plates per instruction. the plates of an Ensemble chunk sit
+ * next to each other, so a cell of every plate is a contiguous block and writing it back in place does not touch any
+ * neighbor the same instruction reads. only compiled with the `vector` maven profile, see VectorKernel.
+ *
+ * every lane block walks the whole row on its own, a lane still sees its cells in the same order as the scalar loop.
+ */
+public class VectorLaneKernel implements LaneKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void row(double[] t, double[] coef, double[] live, double[] residual, int from, int cells, int lanes, int stride){
+        int l = 0;
+        for (; l + SPECIES.length() <= lanes; l += SPECIES.length()) {
+            DoubleVector alive = DoubleVector.fromArray(SPECIES, live, l);
+            DoubleVector largest = DoubleVector.fromArray(SPECIES, residual, l);
+            for (int x = 0, j = from + l; x < cells; x++, j += lanes) {
+                DoubleVector cur = DoubleVector.fromArray(SPECIES, t, j);
+                DoubleVector k = DoubleVector.fromArray(SPECIES, coef, j);
+                DoubleVector total = DoubleVector.zero(SPECIES);
+                total = total.add(DoubleVector.fromArray(SPECIES, t, j - stride - lanes).sub(cur).mul(k));
+                total = total.add(DoubleVector.fromArray(SPECIES, t, j - stride).sub(cur).mul(k));
+                total = total.add(DoubleVector.fromArray(SPECIES, t, j - stride + lanes).sub(cur).mul(k));
+                total = total.add(DoubleVector.fromArray(SPECIES, t, j - lanes).sub(cur).mul(k));
+                total = total.add(DoubleVector.fromArray(SPECIES, t, j + lanes).sub(cur).mul(k));
+                total = total.add(DoubleVector.fromArray(SPECIES, t, j + stride - lanes).sub(cur).mul(k));
+                total = total.add(DoubleVector.fromArray(SPECIES, t, j + stride).sub(cur).mul(k));
+                total = total.add(DoubleVector.fromArray(SPECIES, t, j + stride + lanes).sub(cur).mul(k));
+                DoubleVector change = total.div(8).mul(alive);
+                cur.add(change).intoArray(t, j);
+                largest = largest.max(change.abs());
+            }
+            largest.intoArray(residual, l);
+        }
+        // lanes that do not fill a whole vector, Ensemble pads its chunks so there are none on usual hardware
+        if (l < lanes) {
+            LaneKernel.Scalar.row(t, coef, live, residual, from, cells, lanes, stride, l);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.wstone.concurrent;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * splits the rows of the plate into bands and runs a BandTask over every band, returning once all of them are done.
+ * it also keeps track of the per-iteration overhead: the wall time of run() minus the time the slowest band spent in
+ * its task, which is what scheduling, wakeups and the barrier cost us.
+ * every band writes its residual into its own slot and run() reduces them once all bands are done, so there is no
+ * shared variable the workers fight over.
+ * a task that throws still counts as done for its band, so the other bands and the caller are never left waiting on
+ * it. run() rethrows what it threw on the calling thread once every band is through, the first one if several did.
+ */
+public abstract class BandRunner implements AutoCloseable {
+    // slots are spaced out so two workers never write into the same cache line
+    private static final int SLOT = 8;
+
+    final int bands;
+    final int[] startRows;
+    private final long[] computeNanos;
+    private final double[] residuals;
+    private long runs;
+    private long overheadNanos;
+    private long lastWallNanos;
+    // what a band's task threw in the current run, kept until run() rethrows it
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    BandRunner(int height, int bands){
+        this.bands = bands;
+        this.startRows = new int[bands + 1];
+        for (int b = 0; b <= bands; b++) {
+            startRows[b] = (int) ((long) b * height / bands);
+        }
+        this.computeNanos = new long[bands * SLOT];
+        this.residuals = new double[bands * SLOT];
+    }
+
+    public static BandRunner create(ExecutionMode mode, int height, int bands, WaitStrategy waitStrategy){
+        switch (mode) {
+            case PERSISTENT_WORKERS:
+                return new PhaserBandRunner(height, bands, waitStrategy);
+            case TASK_PER_ITERATION:
+            default:
+                return new TaskBandRunner(height, bands);
+        }
+    }
+
+    // returns the largest residual of any band
+    public final double run(BandTask task) throws InterruptedException {
+        return execute(task, false);
+    }
+
+    // same as run, but adds up what the bands return, e.g. the parts of a dot product
+    public final double runAndSum(BandTask task) throws InterruptedException {
+        return execute(task, true);
+    }
+
+    private double execute(BandTask task, boolean sum) throws InterruptedException {
+        long start = System.nanoTime();
+        dispatch(task);
+        long wall = System.nanoTime() - start;
+        lastWallNanos = wall;
+        Throwable thrown = failure.getAndSet(null);
+        if (thrown instanceof RuntimeException e) {
+            throw e;
+        } else if (thrown instanceof Error e) {
+            throw e;
+        } else if (thrown != null) {
+            throw new IllegalStateException("a band task failed", thrown);
+        }
+        long slowest = 0;
+        double result = 0.0;
+        for (int b = 0; b < bands; b++) {
+            slowest = Math.max(slowest, computeNanos[b * SLOT]);
+            result = sum ? result + residuals[b * SLOT] : Math.max(result, residuals[b * SLOT]);
+        }
+        overheadNanos += Math.max(0, wall - slowest);
+        runs++;
+        return result;
+    }
+
+    // runs the task for every band and returns once all of them have finished
+    abstract void dispatch(BandTask task) throws InterruptedException;
+
+    final void runBand(BandTask task, int band){
+        long start = System.nanoTime();
+        try {
+            residuals[band * SLOT] = task.run(band, startRows[band], startRows[band + 1]);
+        } catch (Throwable t) {
+            residuals[band * SLOT] = Double.NaN;
+            failure.compareAndSet(null, t);
+        }
+        computeNanos[band * SLOT] = System.nanoTime() - start;
+    }
+
+    public int getBands(){ return bands;}
+
+    // how long the band computed in the last run, the rest of getLastWallNanos() it spent waiting for the others
+    public long getLastComputeNanos(int band){
+        return computeNanos[band * SLOT];
+    }
+
+    public long getLastWallNanos(){ return lastWallNanos;}
+
+    public double getOverheadNanosPerIteration(){
+        return runs == 0 ? 0 : (double) overheadNanos / runs;
+    }
+
+    @Override
+    public abstract void close();
+}
@@ -0,0 +1,7 @@
+package org.wstone.concurrent;
+
+// the work one band does in one iteration, rows [startRow, endRow). returns the band's residual
+@FunctionalInterface
+public interface BandTask {
+    double run(int band, int startRow, int endRow);
+}
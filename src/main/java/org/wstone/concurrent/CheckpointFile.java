@@ -0,0 +1,236 @@
+package org.wstone.concurrent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * a plate on disk: a 64 byte little-endian header followed by the temperatures and then the coefficients, both
+ * row-major doubles.
+ *
+ *   0  long   magic, "HEATCKPT"
+ *   8  int    version
+ *  12  int    width
+ *  16  int    height
+ *  24  long   iteration the temperatures are from
+ *  32  double s, the heat source at (0, 0)
+ *  40  double t, the heat source at (width - 1, height - 1)
+ *  48  long   seed the coefficients were drawn from, 0 if they only exist in this file
+ *  56  int    1 while a MappedGrid steps the file in place, 0 once it was synced at the end of the run
+ *
+ * a file that still says 1 belonged to a run that died mid-step. the rows it had stepped are from the next iteration
+ * and the rest from the one before, so open() refuses it instead of resuming from a torn plate.
+ * the whole file is mapped, nothing is read through a stream. a single mapping cannot be larger than 2 GB, so the
+ * arrays are mapped as several segments of whole rows. the mappings stay valid after close() until they are
+ * garbage collected, the jdk has no way to unmap them earlier.
+ */
+public final class CheckpointFile implements Closeable {
+    private static final long MAGIC = 0x54504b4354414548L;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final int width;
+    private final int height;
+    private final double s;
+    private final double t;
+    private final long seed;
+    private final Rows temperatures;
+    private final Rows coefficients;
+
+    private CheckpointFile(FileChannel channel, MappedByteBuffer header) throws IOException {
+        this.channel = channel;
+        this.header = header;
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getLong(0) != MAGIC) {
+            throw new IOException("not a checkpoint file");
+        }
+        if (header.getInt(8) != VERSION) {
+            throw new IOException("checkpoint version " + header.getInt(8) + ", expected " + VERSION);
+        }
+        this.width = header.getInt(12);
+        this.height = header.getInt(16);
+        this.s = header.getDouble(32);
+        this.t = header.getDouble(40);
+        this.seed = header.getLong(48);
+        if (width < 1 || height < 1) {
+            throw new IOException("bad plate size " + width + "x" + height);
+        }
+        if (header.getInt(56) != 0) {
+            throw new IOException("the plate was being stepped in place when its run stopped, it is torn between two iterations");
+        }
+        long arrayBytes = (long) width * height * Double.BYTES;
+        if (channel.size() < HEADER_BYTES + 2 * arrayBytes) {
+            throw new IOException("checkpoint is truncated, " + channel.size() + " bytes for a " + width + "x" + height + " plate");
+        }
+        this.temperatures = new Rows(channel, HEADER_BYTES, width, height);
+        this.coefficients = new Rows(channel, HEADER_BYTES + arrayBytes, width, height);
+    }
+
+    // a new file of the right size, every cell 0 and the iteration 0. an existing file is overwritten
+    public static CheckpointFile create(Path file, int width, int height, double s, double t, long seed) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // mapping past the end grows the file, the new part reads as zeros
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(0, MAGIC).putInt(8, VERSION).putInt(12, width).putInt(16, height)
+                    .putLong(24, 0).putDouble(32, s).putDouble(40, t).putLong(48, seed);
+            channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + 2L * width * height * Double.BYTES - 1, 1);
+            return new CheckpointFile(channel, header);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static CheckpointFile open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException(file + " is too short for a checkpoint");
+            }
+            return new CheckpointFile(channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /*
+     * writes a whole checkpoint from arrays. it goes to a file next to the target first and is moved over it once it
+     * is on disk, so the target is always a complete checkpoint
+     */
+    public static void write(Path file, int width, int height, int iteration, double s, double t, long seed,
+                             double[] temperatures, double[] coefficients) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (CheckpointFile checkpoint = create(tmp, width, height, s, t, seed)) {
+            checkpoint.temperatures.copyFrom(temperatures);
+            checkpoint.coefficients.copyFrom(coefficients);
+            checkpoint.force();
+            checkpoint.setIteration(iteration);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int getWidth(){ return width;}
+
+    public int getHeight(){ return height;}
+
+    public double getS(){ return s;}
+
+    public double getT(){ return t;}
+
+    public long getSeed(){ return seed;}
+
+    public int getIteration(){ return (int) header.getLong(24);}
+
+    // written after the arrays are forced, so a crash in between leaves the old iteration with newer temperatures
+    public void setIteration(int iteration){
+        header.putLong(24, iteration);
+        header.force();
+    }
+
+    // set before the file is stepped in place and cleared once it is synced for good, see the header
+    void setSteppingInPlace(boolean stepping){
+        header.putInt(56, stepping ? 1 : 0);
+        header.force();
+    }
+
+    public void readTemperatures(double[] dst){
+        temperatures.copyTo(dst);
+    }
+
+    public void readCoefficients(double[] dst){
+        coefficients.copyTo(dst);
+    }
+
+    Rows temperatures(){ return temperatures;}
+
+    Rows coefficients(){ return coefficients;}
+
+    // flushes the arrays to disk, the header is flushed by setIteration
+    public void force(){
+        temperatures.force();
+        coefficients.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /*
+     * one width x height array in the file. every row lies in exactly one segment, so a row is always a single bulk
+     * get or put
+     */
+    static final class Rows {
+        private final int width;
+        private final int rowsPerSegment;
+        private final MappedByteBuffer[] mappings;
+        private final DoubleBuffer[] segments;
+
+        Rows(FileChannel channel, long offset, int width, int height) throws IOException {
+            this.width = width;
+            this.rowsPerSegment = (int) Math.max(1, Math.min(height, MAX_SEGMENT_BYTES / ((long) width * Double.BYTES)));
+            int count = (height + rowsPerSegment - 1) / rowsPerSegment;
+            this.mappings = new MappedByteBuffer[count];
+            this.segments = new DoubleBuffer[count];
+            for (int k = 0; k < count; k++) {
+                int rows = Math.min(rowsPerSegment, height - k * rowsPerSegment);
+                long start = offset + (long) k * rowsPerSegment * width * Double.BYTES;
+                mappings[k] = channel.map(FileChannel.MapMode.READ_WRITE, start, (long) rows * width * Double.BYTES);
+                segments[k] = mappings[k].order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            }
+        }
+
+        // absolute gets and puts only, so any number of threads can use the same segments for different rows
+        void getRow(int y, double[] dst, int offset){
+            segments[y / rowsPerSegment].get((y % rowsPerSegment) * width, dst, offset, width);
+        }
+
+        void putRow(int y, double[] src, int offset){
+            segments[y / rowsPerSegment].put((y % rowsPerSegment) * width, src, offset, width);
+        }
+
+        double get(int x, int y){
+            return segments[y / rowsPerSegment].get((y % rowsPerSegment) * width + x);
+        }
+
+        void put(int x, int y, double value){
+            segments[y / rowsPerSegment].put((y % rowsPerSegment) * width + x, value);
+        }
+
+        void copyTo(double[] dst){
+            int offset = 0;
+            for (DoubleBuffer segment : segments) {
+                segment.get(0, dst, offset, segment.capacity());
+                offset += segment.capacity();
+            }
+        }
+
+        void copyFrom(double[] src){
+            int offset = 0;
+            for (DoubleBuffer segment : segments) {
+                segment.put(0, src, offset, segment.capacity());
+                offset += segment.capacity();
+            }
+        }
+
+        void force(){
+            for (MappedByteBuffer mapping : mappings) {
+                mapping.force();
+            }
+        }
+    }
+}
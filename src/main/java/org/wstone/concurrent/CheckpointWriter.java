@@ -0,0 +1,81 @@
+package org.wstone.concurrent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * writes checkpoints on a background thread so the simulation does not wait for the disk. there is at most one write
+ * going, the arrays handed to write() must not change until isBusy() is false again.
+ */
+public final class CheckpointWriter implements Closeable {
+    private final Path file;
+    private ExecutorService executor;
+    private Future<?> pending;
+
+    public CheckpointWriter(Path file){
+        this.file = file;
+    }
+
+    public Path getFile(){ return file;}
+
+    public boolean isBusy(){
+        return pending != null && !pending.isDone();
+    }
+
+    // false if the last write is still going, a disk slower than the checkpoint interval skips checkpoints
+    public boolean write(int width, int height, int iteration, double s, double t, long seed, double[] temperatures, double[] coefficients){
+        if (isBusy()) {
+            System.err.println("checkpoint " + iteration + " not written, the last one is still going");
+            return false;
+        }
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "checkpoint-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        pending = executor.submit(() -> {
+            try {
+                CheckpointFile.write(file, width, height, iteration, s, t, seed, temperatures, coefficients);
+            } catch (IOException e) {
+                System.err.println("could not write checkpoint " + iteration + ": " + e.getMessage());
+            }
+        });
+        return true;
+    }
+
+    // waits for the write that is going, if any, so the next write() is not skipped
+    public void await(){
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("checkpoint write failed: " + e.getCause());
+        }
+    }
+
+    // waits for the last checkpoint to be written
+    @Override
+    public void close(){
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.wstone.concurrent;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+/*
+ * the thermal coefficients of a plate as a function of (seed, x, y). we assume any region is made of 3 alloys with 3
+ * different thermal coefficients with a 20% variance in the amount of each alloy, and that the variance scales
+ * linearly to the thermal coefficient.
+ *
+ * the random numbers are counter based: draw k of cell (x, y) is a hash of seed, x, y and k, two rounds of the
+ * SplitMix64 finalizer, instead of the next number of a generator. no cell depends on another one or on the order
+ * they are filled in, so the rows can be filled on all cores at once, a server can fill just its own band, and the
+ * same seed gives the same plate every time. the seed is kept in checkpoints to tell where a plate came from.
+ */
+public final class CoefficientField {
+    private static final long GOLDEN = 0x9e3779b97f4a7c15L;
+    // fewer cells than this are filled on the calling thread, the fork join overhead is larger than the work
+    private static final int PARALLEL_CELLS = 1 << 16;
+
+    private final long seed;
+    private final double c1;
+    private final double c2;
+    private final double c3;
+
+    public CoefficientField(long seed, double c1, double c2, double c3){
+        this.seed = seed;
+        this.c1 = c1;
+        this.c2 = c2;
+        this.c3 = c3;
+    }
+
+    // a seed for a run that was not asked to be reproducible, never 0 since checkpoints use that for "no seed"
+    public static long randomSeed(){
+        long seed;
+        do {
+            seed = ThreadLocalRandom.current().nextLong();
+        } while (seed == 0);
+        return seed;
+    }
+
+    public long getSeed(){ return seed;}
+
+    public double getC1(){ return c1;}
+
+    public double getC2(){ return c2;}
+
+    public double getC3(){ return c3;}
+
+    public double get(int x, int y){
+        return (c1 * uniform(x, y, 0, 0.8, 1.2) + c2 * uniform(x, y, 1, 0.8, 1.2) + (c3 * uniform(x, y, 2, 0.8, 1.2))) / 3;
+    }
+
+    /*
+     * rows [fromRow, toRow) of a plate width cells wide into dst, row fromRow starts at dst[offset]. large ranges are
+     * split by row over the common fork join pool
+     */
+    public void fill(double[] dst, int offset, int width, int fromRow, int toRow){
+        if ((long) (toRow - fromRow) * width < PARALLEL_CELLS) {
+            for (int y = fromRow; y < toRow; y++) {
+                fillRow(dst, offset + (y - fromRow) * width, width, y);
+            }
+            return;
+        }
+        IntStream.range(fromRow, toRow).parallel().forEach(y -> fillRow(dst, offset + (y - fromRow) * width, width, y));
+    }
+
+    private void fillRow(double[] dst, int start, int width, int y){
+        for (int x = 0; x < width; x++) {
+            dst[start + x] = get(x, y);
+        }
+    }
+
+    // draw k of cell (x, y), uniform in [min, max)
+    private double uniform(int x, int y, int k, double min, double max){
+        long cell = ((long) y << 32) | (x & 0xffffffffL);
+        long h = mix(mix(seed + GOLDEN * cell) + GOLDEN * (k + 1));
+        return min + (max - min) * ((h >>> 11) * 0x1.0p-53);
+    }
+
+    private static long mix(long z){
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
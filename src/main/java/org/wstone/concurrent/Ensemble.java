@@ -0,0 +1,311 @@
+package org.wstone.concurrent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * steps many plates of the same size at once, for parameter sweeps over c1/c2/c3 and the source temperatures.
+ *
+ * plates are packed LANES at a time into chunks. inside a chunk the plates are the innermost dimension: cell (x, y) of
+ * lane l is at (y * width + x) * LANES + l, so one pass over the cells updates that cell on every plate of the chunk
+ * with the same neighbor offsets. the lane loop is a LaneKernel, with the `vector` profile one instruction covers a
+ * whole vector of plates. the last chunk is padded with plates that never step.
+ * chunks are independent and run on a ForkJoinPool, a chunk whose plates all converged early frees its thread to
+ * steal the others' work.
+ *
+ * every plate is stepped in place like Alloy's default FlatGrid, with the ScalarKernel arithmetic in the same order,
+ * so a plate comes out exactly as it would from a single Alloy run with the same coefficients. a plate that converged
+ * keeps its lane but is no longer changed: its change is multiplied by 0 instead of 1.
+ */
+public class Ensemble {
+    private static final int LANES = 16;
+
+    private final int width;
+    private final int height;
+    private final int plates;
+    private final Chunk[] chunks;
+    private final Result[] results;
+    private final LaneKernel kernel = LaneKernel.fastest();
+    private int iterations = 1000;
+    // a plate stops once no cell changes by more than this in one step, 0 runs all iterations
+    private double tolerance = 0.0;
+
+    public Ensemble(int height, int width, int plates){
+        if (plates < 1) {
+            throw new IllegalArgumentException("an ensemble needs at least one plate");
+        }
+        this.width = width;
+        this.height = height;
+        this.plates = plates;
+        this.chunks = new Chunk[(plates + LANES - 1) / LANES];
+        for (int c = 0; c < chunks.length; c++) {
+            chunks[c] = new Chunk(c * LANES, Math.min(LANES, plates - c * LANES));
+        }
+        this.results = new Result[plates];
+    }
+
+    // a plate with coefficients from a random seed
+    public void setPlate(int plate, double s, double t, double c1, double c2, double c3){
+        setPlate(plate, s, t, new CoefficientField(CoefficientField.randomSeed(), c1, c2, c3));
+    }
+
+    // takes the plate's coefficients from the field and sets its two heat sources
+    public void setPlate(int plate, double s, double t, CoefficientField field){
+        Chunk chunk = chunk(plate);
+        int lane = plate - chunk.first;
+        for (int y = 0, cell = 0; y < height; y++) {
+            for (int x = 0; x < width; x++, cell++) {
+                chunk.temperatures[cell * LANES + lane] = 0.0;
+                chunk.coefficients[cell * LANES + lane] = field.get(x, y);
+            }
+        }
+        chunk.temperatures[lane] = s;
+        chunk.temperatures[(width * height - 1) * LANES + lane] = t;
+    }
+
+    public void setIterations(int iterations){
+        this.iterations = iterations;
+    }
+
+    public void setTolerance(double tolerance){
+        this.tolerance = tolerance;
+    }
+
+    public int getPlates(){ return plates;}
+
+    // on the common pool
+    public List<Result> run(){
+        return run(ForkJoinPool.commonPool());
+    }
+
+    // steps every plate until it converges or the iterations run out, the results are in plate order
+    public List<Result> run(ForkJoinPool pool){
+        pool.invoke(new Steps(0, chunks.length));
+        return List.of(results);
+    }
+
+    // the plate's temperatures as a row-major width * height array, like HeatGrid.copyTemperatures
+    public void copyTemperatures(int plate, double[] dst){
+        gather(plate, true, dst);
+    }
+
+    public void copyCoefficients(int plate, double[] dst){
+        gather(plate, false, dst);
+    }
+
+    private void gather(int plate, boolean temperatures, double[] dst){
+        Chunk chunk = chunk(plate);
+        double[] src = temperatures ? chunk.temperatures : chunk.coefficients;
+        for (int cell = 0, i = plate - chunk.first; cell < width * height; cell++, i += LANES) {
+            dst[cell] = src[i];
+        }
+    }
+
+    private Chunk chunk(int plate){
+        if (plate < 0 || plate >= plates) {
+            throw new IndexOutOfBoundsException("plate " + plate + " of " + plates);
+        }
+        return chunks[plate / LANES];
+    }
+
+    // splits the chunks in halves until there is one left, idle workers steal the other halves
+    private final class Steps extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from;
+        private final int to;
+
+        Steps(int from, int to){
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute(){
+            if (to - from == 1) {
+                chunks[from].run();
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Steps(from, mid), new Steps(mid, to));
+        }
+    }
+
+    private final class Chunk {
+        final int first;
+        // plates in the chunk, the lanes after them are padding
+        final int count;
+        final double[] temperatures;
+        final double[] coefficients;
+        // 1 while the plate is still stepping, 0 once it converged and for the padding
+        final double[] live;
+        final double[] residual;
+
+        Chunk(int first, int count){
+            this.first = first;
+            this.count = count;
+            this.temperatures = new double[width * height * LANES];
+            this.coefficients = new double[width * height * LANES];
+            this.live = new double[LANES];
+            this.residual = new double[LANES];
+        }
+
+        void run(){
+            Arrays.fill(live, 0, count, 1.0);
+            int running = count;
+            int iteration = 0;
+            while (running > 0 && iteration < iterations) {
+                Arrays.fill(residual, 0.0);
+                for (int y = 0; y < height; y++) {
+                    row(y);
+                }
+                iteration++;
+                for (int l = 0; l < count; l++) {
+                    if (live[l] == 1.0 && residual[l] < tolerance) {
+                        live[l] = 0.0;
+                        running--;
+                        results[first + l] = new Result(first + l, iteration, residual[l], true);
+                    }
+                }
+            }
+            for (int l = 0; l < count; l++) {
+                if (live[l] == 1.0) {
+                    results[first + l] = new Result(first + l, iteration, residual[l], false);
+                }
+            }
+        }
+
+        // ScalarKernel.row for every lane of plate row y, in place
+        private void row(int y){
+            int i = y * width * LANES;
+            if (y == 0 || y == height - 1 || width < 3) {
+                for (int x = 0; x < width; x++, i += LANES) {
+                    edge(i, x, y);
+                }
+                return;
+            }
+            edge(i, 0, y);
+            kernel.row(temperatures, coefficients, live, residual, i + LANES, width - 2, LANES, width * LANES);
+            edge(i + (width - 1) * LANES, width - 1, y);
+        }
+
+        // ScalarKernel.edgeChange for every lane, the heat sources are left as they are
+        private void edge(int i, int x, int y){
+            if ((x == 0 && y == 0) || (x == width - 1 && y == height - 1)) {
+                return;
+            }
+            int stride = width * LANES;
+            for (int l = 0; l < LANES; l++) {
+                int j = i + l;
+                double cur = temperatures[j];
+                double k = coefficients[j];
+                double totalChange = 0.0;
+                int neighborCount = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    int nY = y + dy;
+                    if (nY < 0 || nY >= height) continue;
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int nX = x + dx;
+                        if ((dx == 0 && dy == 0) || nX < 0 || nX >= width) continue;
+                        totalChange += (temperatures[j + dy * stride + dx * LANES] - cur) * k;
+                        neighborCount++;
+                    }
+                }
+                double change = (neighborCount > 0 ? totalChange / neighborCount : 0.0) * live[l];
+                temperatures[j] = cur + change;
+                residual[l] = Math.max(residual[l], Math.abs(change));
+            }
+        }
+    }
+
+    // how one plate of the ensemble ended
+    public static final class Result {
+        private final int plate;
+        private final int iterations;
+        private final double residual;
+        private final boolean converged;
+
+        Result(int plate, int iterations, double residual, boolean converged){
+            this.plate = plate;
+            this.iterations = iterations;
+            this.residual = residual;
+            this.converged = converged;
+        }
+
+        public int getPlate(){ return plate;}
+
+        public int getIterations(){ return iterations;}
+
+        // of the last step the plate took
+        public double getResidual(){ return residual;}
+
+        // false if the iterations ran out first
+        public boolean isConverged(){ return converged;}
+
+        @Override
+        public String toString(){
+            return String.format("plate %d: %s after %d iterations, residual %.3e", plate, converged ? "converged" : "stopped", iterations, residual);
+        }
+    }
+
+    /*
+     * a sweep of n plates with c1, c2 and c3 spread between 0.75 and 1.25 times the defaults.
+     * options: --plates <n>, --size <height>x<width>, --iterations <n>, --tolerance <r>, --threads <n>,
+     * --seed <n> for the first plate's coefficients, plate p uses seed + p
+     */
+    public static void main(String[] args){
+        int plates = 256;
+        int height = 200;
+        int width = 100;
+        int iterations = 20000;
+        double tolerance = 1e-6;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long seed = CoefficientField.randomSeed();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--plates" -> plates = Integer.parseInt(args[++i]);
+                case "--size" -> {
+                    String[] size = args[++i].split("x");
+                    height = Integer.parseInt(size[0]);
+                    width = Integer.parseInt(size[1]);
+                }
+                case "--iterations" -> iterations = Integer.parseInt(args[++i]);
+                case "--tolerance" -> tolerance = Double.parseDouble(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        Ensemble ensemble = new Ensemble(height, width, plates);
+        for (int p = 0; p < plates; p++) {
+            double f = 0.75 + 0.5 * p / plates;
+            ensemble.setPlate(p, 1000.0, 800.0, new CoefficientField(seed + p, 1.25 * f, 1.0 * (2 - f), 1.75 * f));
+        }
+        ensemble.setIterations(iterations);
+        ensemble.setTolerance(tolerance);
+        System.out.println("coefficients from seed " + seed);
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Result> results;
+        try {
+            results = ensemble.run(pool);
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long steps = 0;
+        List<Result> stopped = new ArrayList<>();
+        for (Result result : results) {
+            steps += result.getIterations();
+            if (!result.isConverged()) stopped.add(result);
+        }
+        System.out.printf("%d plates in %.2f s, %.3g cell updates/s, %d did not converge%n",
+                plates, seconds, (double) steps * width * height / seconds, stopped.size());
+        for (Result result : stopped) {
+            System.out.println(result);
+        }
+    }
+}
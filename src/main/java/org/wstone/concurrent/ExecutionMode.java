@@ -0,0 +1,11 @@
+package org.wstone.concurrent;
+
+/*
+ * TASK_PER_ITERATION submits one task per band to an ExecutorService every iteration and waits on a fresh
+ * CountDownLatch, which is how the simulation always worked.
+ * PERSISTENT_WORKERS gives every band its own thread for the whole run, the threads meet at a reusable Phaser instead.
+ */
+public enum ExecutionMode {
+    TASK_PER_ITERATION,
+    PERSISTENT_WORKERS
+}
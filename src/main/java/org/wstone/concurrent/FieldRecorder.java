@@ -0,0 +1,392 @@
+package org.wstone.concurrent;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/*
+ * a listener that streams every snapshot it gets to a file, for looking at how the field evolved after the run.
+ *
+ * the simulation thread only copies the field into a free buffer out of a small pool and queues it, a writer thread
+ * does the rest. when the disk falls behind and every buffer is still queued the snapshot is dropped and counted,
+ * the simulation never waits on the file. only onFinished waits for a buffer, the run is over by then and the last
+ * field should not get lost.
+ *
+ * the writer rounds every temperature to a float16, which keeps about 3 significant digits (0.5 degrees at 1000),
+ * and stores the difference to the same cell in the frame before. a settling plate changes in few cells between
+ * snapshots, so most differences are 0 and those are run length coded, the rest are zigzag varints. every
+ * KEYFRAME_INTERVAL-th frame is stored against an all 0 frame so a reader can start there.
+ *
+ * file layout, little-endian:
+ *   header   long magic "HEATREC1", int version, int width, int height, int keyframe interval, 8 bytes unused
+ *   frames   int payload bytes, int iteration, double residual, byte 0 for a keyframe or 1 for a delta, payload
+ */
+public class FieldRecorder implements SimulationListener, Closeable {
+    private static final long MAGIC = 0x3143455254414548L;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int FRAME_HEADER_BYTES = 17;
+    static final int KEYFRAME_INTERVAL = 64;
+    private static final Frame END = new Frame(null);
+
+    private final int width;
+    private final int height;
+    private final FileChannel channel;
+    private final BlockingQueue<Frame> free;
+    private final BlockingQueue<Frame> queued;
+    private final Thread writer;
+    // only touched by the writer thread
+    private final short[] previous;
+    private final byte[] encoded;
+    private final ByteBuffer out;
+    private int frames;
+    private long bytes;
+    private IOException failure;
+    // only incremented by the simulation thread
+    private volatile long dropped;
+
+    // buffers is how many snapshots may be waiting for the disk before they get dropped
+    public FieldRecorder(Path file, int width, int height, int buffers) throws IOException {
+        if (buffers < 1) {
+            throw new IllegalArgumentException("need at least one buffer");
+        }
+        this.width = width;
+        this.height = height;
+        this.free = new ArrayBlockingQueue<>(buffers);
+        // one more slot for END
+        this.queued = new ArrayBlockingQueue<>(buffers + 1);
+        for (int i = 0; i < buffers; i++) {
+            free.add(new Frame(new double[width * height]));
+        }
+        this.previous = new short[width * height];
+        // a zigzag varint of 16 bits is at most 3 bytes
+        this.encoded = new byte[3 * width * height];
+        this.out = ByteBuffer.allocateDirect(FRAME_HEADER_BYTES + encoded.length).order(ByteOrder.LITTLE_ENDIAN);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        out.putLong(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(KEYFRAME_INTERVAL).putLong(0).flip();
+        writeFully(out);
+        this.writer = new Thread(this::drain, "field-recorder");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void onSnapshot(int iteration, double residual, double[] temperatures){
+        Frame frame = free.poll();
+        if (frame == null) {
+            dropped++;
+            return;
+        }
+        queue(frame, iteration, residual, temperatures);
+    }
+
+    @Override
+    public void onFinished(int iterations, double residual, double[] temperatures){
+        try {
+            queue(free.take(), iterations, residual, temperatures);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void queue(Frame frame, int iteration, double residual, double[] temperatures){
+        System.arraycopy(temperatures, 0, frame.temperatures, 0, frame.temperatures.length);
+        frame.iteration = iteration;
+        frame.residual = residual;
+        queued.add(frame);
+    }
+
+    public long getDropped(){ return dropped;}
+
+    // writes what is still queued and closes the file
+    @Override
+    public void close() throws IOException {
+        queued.add(END);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        System.out.printf("recorded %d frames in %d bytes, %.1f%% of the doubles, %d dropped%n",
+                frames, bytes, 100.0 * bytes / Math.max(1L, (long) frames * width * height * Double.BYTES), dropped);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void drain(){
+        try {
+            while (true) {
+                Frame frame = queued.take();
+                if (frame == END) {
+                    return;
+                }
+                if (failure == null) {
+                    try {
+                        write(frame);
+                    } catch (IOException e) {
+                        // keep taking frames so the simulation never runs out of buffers, close() reports it
+                        failure = e;
+                        System.err.println("field recording stopped: " + e.getMessage());
+                    }
+                }
+                free.add(frame);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void write(Frame frame) throws IOException {
+        boolean key = frames % KEYFRAME_INTERVAL == 0;
+        // coded into a plain array first, the header in front needs the length
+        byte[] b = encoded;
+        int n = 0;
+        int zeros = 0;
+        double[] t = frame.temperatures;
+        for (int i = 0; i < t.length; i++) {
+            short half = toHalf((float) t[i]);
+            int delta = (short) (half - (key ? 0 : previous[i]));
+            previous[i] = half;
+            if (delta == 0) {
+                zeros++;
+                continue;
+            }
+            if (zeros > 0) {
+                b[n++] = 0;
+                n = putVarint(b, n, zeros);
+                zeros = 0;
+            }
+            n = putVarint(b, n, (delta << 1) ^ (delta >> 31));
+        }
+        if (zeros > 0) {
+            b[n++] = 0;
+            n = putVarint(b, n, zeros);
+        }
+        out.clear();
+        out.putInt(n).putInt(frame.iteration).putDouble(frame.residual).put((byte) (key ? 0 : 1)).put(b, 0, n);
+        out.flip();
+        bytes += out.remaining();
+        writeFully(out);
+        frames++;
+    }
+
+    private void writeFully(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    // returns the position after the varint
+    private static int putVarint(byte[] buf, int position, int value){
+        while ((value & ~0x7f) != 0) {
+            buf[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buf[position++] = (byte) value;
+        return position;
+    }
+
+    private static int getVarint(ByteBuffer buf) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (!buf.hasRemaining()) {
+                throw new IOException("varint cut off at the end of a frame");
+            }
+            byte b = buf.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    // ieee 754 half precision, rounded to nearest even. values past 65504 become infinity
+    static short toHalf(float value){
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int exponent = (bits >>> 23) & 0xff;
+        int mantissa = bits & 0x7fffff;
+        if (exponent == 0xff) {
+            return (short) (sign | 0x7c00 | (mantissa != 0 ? 0x200 : 0));
+        }
+        int e = exponent - 127 + 15;
+        if (e >= 0x1f) {
+            return (short) (sign | 0x7c00);
+        }
+        if (e > 0) {
+            // adding just under half a unit, plus one if the kept bit is odd, rounds to nearest even without a branch,
+            // which matters on noisy fields. a carry out of the mantissa correctly bumps the exponent
+            int rounded = (e << 23) | mantissa;
+            rounded += 0xfff + ((rounded >> 13) & 1);
+            return (short) (sign | (rounded >> 13));
+        }
+        // subnormal
+        if (e < -10) {
+            return (short) sign;
+        }
+        mantissa |= 0x800000;
+        int shift = 14 - e;
+        int half = mantissa >> shift;
+        int rest = mantissa & ((1 << shift) - 1);
+        int midway = 1 << (shift - 1);
+        if (rest > midway || (rest == midway && (half & 1) != 0)) {
+            half++;
+        }
+        return (short) (sign | half);
+    }
+
+    static float fromHalf(short half){
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        if (exponent == 0x1f) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        if (exponent == 0) {
+            float value = mantissa * 0x1p-24f;
+            return sign != 0 ? -value : value;
+        }
+        return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23) | (mantissa << 13));
+    }
+
+    private static final class Frame {
+        final double[] temperatures;
+        int iteration;
+        double residual;
+
+        Frame(double[] temperatures){
+            this.temperatures = temperatures;
+        }
+    }
+
+    /*
+     * reads a recording back frame by frame:
+     *
+     *   try (FieldRecorder.Reader reader = FieldRecorder.Reader.open(path)) {
+     *       double[] field = new double[reader.getWidth() * reader.getHeight()];
+     *       while (reader.next(field)) { ... reader.getIteration() ... }
+     *   }
+     */
+    public static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final int width;
+        private final int height;
+        private final short[] previous;
+        private final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private ByteBuffer payload = ByteBuffer.allocate(0);
+        private int iteration;
+        private double residual;
+
+        private Reader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            if (!readFully(header)) {
+                throw new IOException("too short for a recording");
+            }
+            if (header.getLong(0) != MAGIC) {
+                throw new IOException("not a field recording");
+            }
+            if (header.getInt(8) != VERSION) {
+                throw new IOException("recording version " + header.getInt(8) + ", expected " + VERSION);
+            }
+            this.width = header.getInt(12);
+            this.height = header.getInt(16);
+            if (width < 1 || height < 1 || (long) width * height > Integer.MAX_VALUE / 3) {
+                throw new IOException("bad plate size " + width + "x" + height);
+            }
+            this.previous = new short[width * height];
+        }
+
+        public static Reader open(Path file) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                return new Reader(channel);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        public int getWidth(){ return width;}
+
+        public int getHeight(){ return height;}
+
+        // of the frame the last next() returned
+        public int getIteration(){ return iteration;}
+
+        public double getResidual(){ return residual;}
+
+        // false at the end of the recording. a frame cut off by a crash counts as the end, a corrupt one throws
+        public boolean next(double[] dst) throws IOException {
+            frameHeader.clear();
+            if (!readFully(frameHeader)) {
+                return false;
+            }
+            int size = frameHeader.getInt(0);
+            iteration = frameHeader.getInt(4);
+            residual = frameHeader.getDouble(8);
+            boolean key = frameHeader.get(16) == 0;
+            // the writer never makes more than 3 bytes a cell, anything else is not a frame and must not be allocated
+            if (size < 0 || size > 3 * previous.length) {
+                throw new IOException("corrupt frame after iteration " + iteration + ", " + size + " payload bytes for " + previous.length + " cells");
+            }
+            if (payload.capacity() < size) {
+                payload = ByteBuffer.allocate(size);
+            }
+            payload.clear().limit(size);
+            if (!readFully(payload)) {
+                return false;
+            }
+            int i = 0;
+            while (payload.hasRemaining()) {
+                int zigzag = getVarint(payload);
+                if (zigzag == 0) {
+                    int end = i + getVarint(payload);
+                    if (end < i || end > previous.length) {
+                        throw new IOException("frame " + iteration + " runs past its " + previous.length + " cells");
+                    }
+                    for (; i < end; i++) {
+                        if (key) previous[i] = 0;
+                        dst[i] = fromHalf(previous[i]);
+                    }
+                    continue;
+                }
+                if (i == previous.length) {
+                    throw new IOException("frame " + iteration + " runs past its " + previous.length + " cells");
+                }
+                int delta = (zigzag >>> 1) ^ -(zigzag & 1);
+                previous[i] = (short) ((key ? 0 : previous[i]) + delta);
+                dst[i] = fromHalf(previous[i]);
+                i++;
+            }
+            if (i != previous.length) {
+                throw new IOException("frame " + iteration + " has " + i + " cells, expected " + previous.length);
+            }
+            return true;
+        }
+
+        private boolean readFully(ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) {
+                    // the end, or a frame that was only partly written
+                    return false;
+                }
+            }
+            buf.flip();
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
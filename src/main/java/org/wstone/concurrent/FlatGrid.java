@@ -0,0 +1,126 @@
+package org.wstone.concurrent;
+
+/*
+ * stores the plate in two flat row-major arrays, one for temperatures and one for thermal coefficients,
+ * which is 16 bytes per cell instead of a Region object with its own neighbor list and lock.
+ * cell (x, y) lives at index y * width + x and the 8 neighbors are found with index arithmetic.
+ */
+public class FlatGrid implements HeatGrid {
+    private final int width;
+    private final int height;
+    private final StepMode mode;
+    double[] temperatures;
+    // the buffer computeHeatTransfer writes into, the same array as temperatures when stepping in place
+    double[] next;
+    final double[] coefficients;
+    private final long seed;
+    private StencilKernel kernel;
+
+    public FlatGrid(int height, int width, double c1, double c2, double c3){
+        this(height, width, c1, c2, c3, StepMode.IN_PLACE);
+    }
+
+    // coefficients from a random seed, getSeed() tells which one
+    public FlatGrid(int height, int width, double c1, double c2, double c3, StepMode mode){
+        this(height, width, new CoefficientField(CoefficientField.randomSeed(), c1, c2, c3), mode);
+    }
+
+    public FlatGrid(int height, int width, CoefficientField field, StepMode mode){
+        this.width = width;
+        this.height = height;
+        this.mode = mode;
+        this.temperatures = new double[width * height];
+        this.next = mode == StepMode.DOUBLE_BUFFERED ? new double[width * height] : temperatures;
+        this.kernel = mode == StepMode.DOUBLE_BUFFERED ? StencilKernel.fastest() : new ScalarKernel();
+        this.coefficients = new double[width * height];
+        this.seed = field.getSeed();
+        field.fill(coefficients, 0, width, 0, height);
+    }
+
+    // continues from a checkpoint, its coefficients are used as they are
+    public FlatGrid(CheckpointFile checkpoint, StepMode mode){
+        this.width = checkpoint.getWidth();
+        this.height = checkpoint.getHeight();
+        this.mode = mode;
+        this.temperatures = new double[width * height];
+        checkpoint.readTemperatures(temperatures);
+        this.next = mode == StepMode.DOUBLE_BUFFERED ? temperatures.clone() : temperatures;
+        this.kernel = mode == StepMode.DOUBLE_BUFFERED ? StencilKernel.fastest() : new ScalarKernel();
+        this.coefficients = new double[width * height];
+        checkpoint.readCoefficients(coefficients);
+        this.seed = checkpoint.getSeed();
+    }
+
+    @Override
+    public int getWidth(){ return width;}
+
+    @Override
+    public int getHeight(){ return height;}
+
+    @Override
+    public double getTemperature(int x, int y){
+        return temperatures[y * width + x];
+    }
+
+    // writes both buffers, the heat sources are never recomputed so they have to be present in whichever one is current
+    @Override
+    public void setTemperature(int x, int y, double temperature){
+        temperatures[y * width + x] = temperature;
+        next[y * width + x] = temperature;
+    }
+
+    @Override
+    public double getThermalCoefficient(int x, int y){
+        return coefficients[y * width + x];
+    }
+
+    @Override
+    public void copyTemperatures(double[] dst){
+        System.arraycopy(temperatures, 0, dst, 0, temperatures.length);
+    }
+
+    @Override
+    public void copyCoefficients(double[] dst){
+        System.arraycopy(coefficients, 0, dst, 0, coefficients.length);
+    }
+
+    @Override
+    public long getSeed(){ return seed;}
+
+    public StepMode getStepMode(){ return mode;}
+
+    /*
+     * multi-step and vector kernels read neighbors from the untouched current buffer, so they only work when
+     * stepping is double buffered
+     */
+    public void setKernel(StencilKernel kernel){
+        if (kernel.requiresDoubleBuffering() && mode != StepMode.DOUBLE_BUFFERED) {
+            throw new IllegalStateException(kernel.getClass().getSimpleName() + " needs DOUBLE_BUFFERED stepping");
+        }
+        this.kernel = kernel;
+    }
+
+    /*
+     * neighbors are read from the current buffer and the result is written to next, which in IN_PLACE mode is the
+     * same array.
+     */
+    @Override
+    public double computeHeatTransfer(int startRow, int endRow){
+        return kernel.sweep(temperatures, next, coefficients, width, height, startRow, endRow);
+    }
+
+    @Override
+    public int getStepsPerSweep(){
+        return kernel.getStepsPerSweep();
+    }
+
+    @Override
+    public void swapBuffers(){
+        kernel.stepDone();
+        if (mode == StepMode.DOUBLE_BUFFERED) {
+            double[] tmp = temperatures;
+            temperatures = next;
+            next = tmp;
+        }
+    }
+}
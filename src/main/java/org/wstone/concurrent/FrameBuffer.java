@@ -0,0 +1,54 @@
+package org.wstone.concurrent;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * hands temperature snapshots from the simulation thread to the painting thread without allocating or locking.
+ *
+ * three width * height arrays: the writer fills the back one, the reader paints the front one, and the middle one is
+ * the newest finished frame. publish() and latest() swap their own buffer with the middle one through a single
+ * atomic index, so the writer never waits on the reader and the reader always gets a complete frame. there must be one
+ * writing thread and one reading thread.
+ */
+public class FrameBuffer {
+    // set in the middle index when it holds a frame the reader has not picked up yet
+    private static final int FRESH = 4;
+    private static final int INDEX = 3;
+
+    private final int width;
+    private final int height;
+    private final double[][] buffers;
+    private final AtomicInteger middle = new AtomicInteger(1);
+    // only touched by the writer
+    private int back = 0;
+    // only touched by the reader
+    private int front = 2;
+
+    public FrameBuffer(int height, int width){
+        this.width = width;
+        this.height = height;
+        this.buffers = new double[][]{new double[width * height], new double[width * height], new double[width * height]};
+    }
+
+    public int getWidth(){ return width;}
+
+    public int getHeight(){ return height;}
+
+    // the array to write the next frame into, row-major like FlatGrid
+    public double[] backBuffer(){
+        return buffers[back];
+    }
+
+    // makes the back buffer the newest frame and takes the old middle one as the next back buffer
+    public void publish(){
+        back = middle.getAndSet(back | FRESH) & INDEX;
+    }
+
+    // the newest published frame, the reader may keep using it until the next call
+    public double[] latest(){
+        if ((middle.get() & FRESH) != 0) {
+            front = middle.getAndSet(front) & INDEX;
+        }
+        return buffers[front];
+    }
+}
@@ -0,0 +1,36 @@
+package org.wstone.concurrent;
+
+/*
+ * the plate as seen by the simulation loop. each worker band calls computeHeatTransfer(startRow, endRow)
+ * on its own rows, so implementations only need to be safe for disjoint row ranges.
+ */
+public interface HeatGrid {
+
+    int getWidth();
+
+    int getHeight();
+
+    double getTemperature(int x, int y);
+
+    void setTemperature(int x, int y, double temperature);
+
+    double getThermalCoefficient(int x, int y);
+
+    // copies the current temperatures into a row-major width * height array
+    void copyTemperatures(double[] dst);
+
+    // copies the thermal coefficients the same way, they do not change during a run
+    void copyCoefficients(double[] dst);
+
+    // the CoefficientField seed the coefficients were drawn from, 0 if it is not known
+    long getSeed();
+
+    // returns the largest absolute change of any cell in the rows, see StencilKernel
+    double computeHeatTransfer(int startRow, int endRow);
+
+    // how many time steps one computeHeatTransfer call advances the plate by
+    int getStepsPerSweep();
+
+    // called once per iteration after every band has finished computeHeatTransfer
+    void swapBuffers();
+}
@@ -0,0 +1,43 @@
+package org.wstone.concurrent;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/*
+ * turns a frame of temperatures into an image, one pixel per cell. the colors are looked up in a table built once,
+ * red for hot and blue for cold scaled to the cooler of the two sources like before, and written straight into the
+ * image's int array, so painting a frame allocates nothing. the caller scales the image up by its cell size when it
+ * draws it.
+ */
+public class HeatRenderer {
+    private static final int LUT_SIZE = 4096;
+
+    private final int[] lut = new int[LUT_SIZE];
+    // maps a temperature onto a table index
+    private final double scale;
+    private final BufferedImage image;
+    private final int[] pixels;
+
+    public HeatRenderer(int height, int width, double s, double t){
+        double b = Math.min(s, t);
+        for (int i = 0; i < LUT_SIZE; i++) {
+            double d = b * i / (LUT_SIZE - 1);
+            int red = (int) (255 * (d / b));
+            int blue = (int) (255 * (1 - d / b));
+            lut[i] = (red << 16) | blue;
+        }
+        this.scale = (LUT_SIZE - 1) / b;
+        this.image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    // the frame has to be row-major and the same size as the image
+    public BufferedImage render(double[] frame){
+        for (int i = 0; i < pixels.length; i++) {
+            double index = frame[i] * scale;
+            // NaN falls through to the cold end
+            pixels[i] = lut[index >= LUT_SIZE - 1 ? LUT_SIZE - 1 : index > 0 ? (int) index : 0];
+        }
+        return image;
+    }
+}
@@ -0,0 +1,55 @@
+package org.wstone.concurrent;
+
+/*
+ * the interior cells of one plate row for every plate of an Ensemble chunk, in place. cell x of lane l is at
+ * from + x * lanes + l, the rows above and below are stride away. a lane's change is multiplied by live[l] before it
+ * is added, and residual[l] keeps the largest absolute change of the lane. the arithmetic is ScalarKernel's, in the
+ * same order.
+ */
+interface LaneKernel {
+
+    void row(double[] t, double[] coef, double[] live, double[] residual, int from, int cells, int lanes, int stride);
+
+    // the VectorLaneKernel under the same conditions as StencilKernel.fastest()
+    static LaneKernel fastest(){
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (LaneKernel) Class.forName("org.wstone.concurrent.VectorLaneKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // built without the vector profile
+            }
+        }
+        return new Scalar();
+    }
+
+    // the jit in 17 does not vectorize a loop with this many loads, so this one stays scalar
+    final class Scalar implements LaneKernel {
+        @Override
+        public void row(double[] t, double[] coef, double[] live, double[] residual, int from, int cells, int lanes, int stride){
+            row(t, coef, live, residual, from, cells, lanes, stride, 0);
+        }
+
+        // only lanes [firstLane, lanes)
+        static void row(double[] t, double[] coef, double[] live, double[] residual, int from, int cells, int lanes, int stride, int firstLane){
+            for (int x = 0, i = from; x < cells; x++, i += lanes) {
+                for (int l = firstLane; l < lanes; l++) {
+                    int j = i + l;
+                    double cur = t[j];
+                    double k = coef[j];
+                    double totalChange = 0.0;
+                    totalChange += (t[j - stride - lanes] - cur) * k;
+                    totalChange += (t[j - stride] - cur) * k;
+                    totalChange += (t[j - stride + lanes] - cur) * k;
+                    totalChange += (t[j - lanes] - cur) * k;
+                    totalChange += (t[j + lanes] - cur) * k;
+                    totalChange += (t[j + stride - lanes] - cur) * k;
+                    totalChange += (t[j + stride] - cur) * k;
+                    totalChange += (t[j + stride + lanes] - cur) * k;
+                    double change = totalChange / 8 * live[l];
+                    t[j] = cur + change;
+                    residual[l] = Math.max(residual[l], Math.abs(change));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package org.wstone.concurrent;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/*
+ * a plate that lives in a CheckpointFile instead of on the heap, for plates that do not fit into it. the file is
+ * stepped in place, so it always holds the current field. that also means a crash leaves a plate that is half one
+ * iteration and half the next, so the file is marked while it is stepped and only a run that got to finish() can be
+ * resumed from it, see CheckpointFile. syncing in between would not help, the next step overwrites the synced plate.
+ * to survive crashes on a mapped plate copy it somewhere else now and then, or run on the heap with a checkpoint file.
+ *
+ * each row is copied into a small window together with the rows above and below it, stepped there with
+ * ScalarKernel.row and copied back. that is the same update in the same order as a FlatGrid stepping IN_PLACE with the
+ * ScalarKernel, so both give bit-for-bit the same plate. there is no double buffered mode, it would need a second
+ * plate on disk.
+ */
+public class MappedGrid implements HeatGrid {
+    private final CheckpointFile file;
+    private final CheckpointFile.Rows temperatures;
+    private final CheckpointFile.Rows coefficients;
+    private final int width;
+    private final int height;
+    // every band thread gets its own window: three rows of temperatures and the coefficients of the middle one
+    private final ThreadLocal<double[][]> scratch;
+    // rows create() generates at once, enough to keep every core busy without a large heap buffer
+    private static final int FILL_ROWS = 256;
+
+    public MappedGrid(CheckpointFile file){
+        this.file = file;
+        this.temperatures = file.temperatures();
+        this.coefficients = file.coefficients();
+        this.width = file.getWidth();
+        this.height = file.getHeight();
+        int window = 3 * width;
+        this.scratch = ThreadLocal.withInitial(() -> new double[][]{new double[window], new double[window]});
+    }
+
+    // a new plate at 0 degrees with the field's coefficients, filled FILL_ROWS rows at a time on the heap
+    public static MappedGrid create(Path path, int height, int width, double s, double t, CoefficientField field) throws IOException {
+        CheckpointFile file = CheckpointFile.create(path, width, height, s, t, field.getSeed());
+        int rows = Math.max(1, Math.min(height, FILL_ROWS));
+        double[] block = new double[rows * width];
+        for (int y = 0; y < height; y += rows) {
+            int end = Math.min(height, y + rows);
+            field.fill(block, 0, width, y, end);
+            for (int r = y; r < end; r++) {
+                file.coefficients().putRow(r, block, (r - y) * width);
+            }
+        }
+        return new MappedGrid(file);
+    }
+
+    public CheckpointFile getFile(){ return file;}
+
+    @Override
+    public long getSeed(){ return file.getSeed();}
+
+    // marks the file before the first step writes to it
+    public void start(){
+        file.setSteppingInPlace(true);
+    }
+
+    // puts the plate on disk at the end of a run and records which iteration it is from, afterwards the file can be
+    // opened again
+    public void finish(int iteration){
+        file.force();
+        file.setIteration(iteration);
+        file.setSteppingInPlace(false);
+    }
+
+    @Override
+    public int getWidth(){ return width;}
+
+    @Override
+    public int getHeight(){ return height;}
+
+    @Override
+    public double getTemperature(int x, int y){
+        return temperatures.get(x, y);
+    }
+
+    @Override
+    public void setTemperature(int x, int y, double temperature){
+        temperatures.put(x, y, temperature);
+    }
+
+    @Override
+    public double getThermalCoefficient(int x, int y){
+        return coefficients.get(x, y);
+    }
+
+    @Override
+    public void copyTemperatures(double[] dst){
+        temperatures.copyTo(dst);
+    }
+
+    @Override
+    public void copyCoefficients(double[] dst){
+        coefficients.copyTo(dst);
+    }
+
+    @Override
+    public double computeHeatTransfer(int startRow, int endRow){
+        double[][] buffers = scratch.get();
+        double[] rows = buffers[0];
+        double[] coef = buffers[1];
+        double residual = 0.0;
+        for (int y = startRow; y < endRow; y++) {
+            // window row 1 is plate row y, rows off the plate are never read
+            for (int r = Math.max(0, y - 1); r < Math.min(height, y + 2); r++) {
+                temperatures.getRow(r, rows, (r - y + 1) * width);
+            }
+            coefficients.getRow(y, coef, width);
+            residual = Math.max(residual, ScalarKernel.row(rows, rows, coef, width, width, y, 0, width, width, height));
+            temperatures.putRow(y, rows, width);
+        }
+        return residual;
+    }
+
+    @Override
+    public int getStepsPerSweep(){ return 1;}
+
+    @Override
+    public void swapBuffers(){
+    }
+}
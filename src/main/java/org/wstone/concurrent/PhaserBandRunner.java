@@ -0,0 +1,68 @@
+package org.wstone.concurrent;
+
+import java.util.concurrent.Phaser;
+
+/*
+ * one thread per band for the whole run. the workers and the calling thread are all parties of a single Phaser and
+ * every run() takes two phases: the first releases the workers onto the new task, the second is the workers reporting
+ * back. nothing is allocated per iteration.
+ */
+class PhaserBandRunner extends BandRunner {
+    private final Phaser phaser;
+    private final WaitStrategy waitStrategy;
+    private final Thread[] workers;
+    // written before the start phase is released, the phaser makes it visible to the workers
+    private BandTask task;
+
+    PhaserBandRunner(int height, int bands, WaitStrategy waitStrategy){
+        super(height, bands);
+        this.waitStrategy = waitStrategy;
+        this.phaser = new Phaser(bands + 1);
+        this.workers = new Thread[bands];
+        for (int band = 0; band < bands; band++) {
+            final int b = band;
+            workers[band] = new Thread(() -> work(b), "band-worker-" + band);
+            workers[band].setDaemon(true);
+            workers[band].start();
+        }
+    }
+
+    private void work(int band){
+        try {
+            while (true) {
+                waitStrategy.await(phaser, phaser.arrive());
+                if (phaser.isTerminated()) {
+                    return;
+                }
+                // never throws, a failing task is handed to the caller, so the worker always arrives
+                runBand(task, band);
+                waitStrategy.await(phaser, phaser.arrive());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    void dispatch(BandTask task) throws InterruptedException {
+        this.task = task;
+        waitStrategy.await(phaser, phaser.arrive());
+        waitStrategy.await(phaser, phaser.arrive());
+        if (phaser.isTerminated()) {
+            throw new InterruptedException("band workers were shut down");
+        }
+    }
+
+    @Override
+    public void close() {
+        phaser.forceTermination();
+        for (Thread worker : workers) {
+            try {
+                worker.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package org.wstone.concurrent;
+
+/*
+ * the plain row-by-row sweep. row() is shared with the other kernels so every one of them does exactly the same
+ * floating point operations in the same order as this one.
+ */
+public class ScalarKernel implements StencilKernel {
+
+    @Override
+    public double sweep(double[] src, double[] dst, double[] coef, int width, int height, int startRow, int endRow){
+        double residual = 0.0;
+        for (int y = startRow; y < endRow; y++) {
+            residual = Math.max(residual, row(src, dst, coef, y * width, width, y, 0, width, width, height));
+        }
+        return residual;
+    }
+
+    /*
+     * same update as the old Region loop: every cell moves towards the average of its neighbors, scaled by its own
+     * coefficient. neighbors are visited in the same order as the old surroundings table so the floating point sums
+     * come out identical.
+     *
+     * updates cells [x0, x1) of plate row y. the arrays do not have to hold the whole plate: cell (x, y) is at
+     * rowStart + x and the rows above and below are stride away, which lets the tiled kernel run this on a scratch
+     * window. x, y, width and height are always plate coordinates, they decide which neighbors exist.
+     * the two heat sources are copied through unchanged. returns the largest absolute change in the row segment.
+     */
+    public static double row(double[] src, double[] dst, double[] coef, int rowStart, int stride, int y, int x0, int x1, int width, int height){
+        boolean interiorRow = y > 0 && y < height - 1;
+        double residual = 0.0;
+        for (int x = x0; x < x1; x++) {
+            int i = rowStart + x;
+            double cur = src[i];
+            if((x==0 && y==0) || (x==width-1 && y==height-1)){
+                dst[i] = cur;
+                continue;
+            }
+            double k = coef[i];
+            double change;
+            if (interiorRow && x > 0 && x < width - 1) {
+                double totalChange = 0.0;
+                totalChange += (src[i - stride - 1] - cur) * k;
+                totalChange += (src[i - stride] - cur) * k;
+                totalChange += (src[i - stride + 1] - cur) * k;
+                totalChange += (src[i - 1] - cur) * k;
+                totalChange += (src[i + 1] - cur) * k;
+                totalChange += (src[i + stride - 1] - cur) * k;
+                totalChange += (src[i + stride] - cur) * k;
+                totalChange += (src[i + stride + 1] - cur) * k;
+                change = totalChange / 8;
+            } else {
+                change = edgeChange(src, i, stride, x, y, cur, k, width, height);
+            }
+            dst[i] = cur + change;
+            residual = Math.max(residual, Math.abs(change));
+        }
+        return residual;
+    }
+
+    // the slow path for cells on the border of the plate, which have 3 or 5 neighbors
+    static double edgeChange(double[] t, int i, int stride, int x, int y, double cur, double k, int width, int height){
+        double totalChange = 0.0;
+        int neighborCount = 0;
+        for (int dy = -1; dy <= 1; dy++) {
+            int nY = y + dy;
+            if (nY < 0 || nY >= height) continue;
+            for (int dx = -1; dx <= 1; dx++) {
+                int nX = x + dx;
+                if ((dx == 0 && dy == 0) || nX < 0 || nX >= width) continue;
+                totalChange += (t[i + dy * stride + dx] - cur) * k;
+                neighborCount++;
+            }
+        }
+        return neighborCount > 0 ? totalChange / neighborCount : 0.0;
+    }
+}
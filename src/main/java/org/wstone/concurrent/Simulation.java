@@ -1,199 +1,442 @@
 package org.wstone.concurrent;
 
-import javax.swing.*;
-import java.awt.*;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.*;
-import java.util.concurrent.locks.ReentrantLock;
-import com.google.common.util.concurrent.AtomicDouble;
 
 
+/*
+ * nothing in here touches swing, the window is just one more SimulationListener. run with --headless to step the
+ * plate without ever loading awt, e.g. on a box without a display
+ */
 public class Simulation {
 
     class Alloy{
-        Region[][] grid;
+        HeatGrid grid;
         private final int width;
         private final int height;
-        private final ExecutorService executorService;
+        private BandRunner runner;
+        private ExecutionMode executionMode = ExecutionMode.TASK_PER_ITERATION;
+        private WaitStrategy waitStrategy = WaitStrategy.spinThenPark(1 << 10);
         private final int iterations;
-        ConcurrentHashMap<String, Double> tempMap = new ConcurrentHashMap<>();
-        Visualization vis;
+        private final double s;
+        private final double t;
+        // where a run picked up from a checkpoint started
+        private int startIteration;
+        // 0 never checkpoints
+        private int checkpointInterval = 0;
+        private CheckpointWriter checkpointWriter;
+        private double[] checkpointTemperatures;
+        private double[] checkpointCoefficients;
+        // the run stops once no cell changes by more than this in one step, 0 runs all iterations
+        private double tolerance = 0.0;
+        // 0 steps with computeHeatTransfer, otherwise a TimeIntegrator advances the plate by dt per iteration
+        private double dt = 0.0;
+        private TimeIntegrator.Scheme scheme = TimeIntegrator.Scheme.AUTO;
+        private double residual = Double.NaN;
+        private int completedIterations;
+        private final List<SimulationListener> listeners = new ArrayList<>();
+        private SnapshotSchedule snapshotSchedule = SnapshotSchedule.everyIterations(5);
+        private SnapshotSchedule logSchedule = SnapshotSchedule.everyIterations(1000);
+        // what the listeners get handed, only allocated once there is a listener
+        private double[] snapshot;
+        private final SimulationMetrics metrics;
         private static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
 
 
 
         public Alloy(int height, int width, double s, double t, double c1, double c2, double c3, int iterations){
-            this.width = width;
-            this.height = height;
-            this.grid = new Region[height][width];
+            this(height, width, s, t, c1, c2, c3, iterations, StepMode.IN_PLACE);
+        }
+
+        public Alloy(int height, int width, double s, double t, double c1, double c2, double c3, int iterations, StepMode mode){
+            this(new FlatGrid(height, width, c1, c2, c3, mode), s, t, iterations);
+        }
+
+        // for a grid that was already set up, e.g. a FlatGrid with a TiledKernel
+        public Alloy(HeatGrid grid, double s, double t, int iterations){
+            this.width = grid.getWidth();
+            this.height = grid.getHeight();
+            this.grid = grid;
             this.iterations = iterations;
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    grid[y][x] = new Region(c1, c2, c3);
-                }
-            }
-            vis = new Visualization(this.tempMap, height, width, s, t);
+            this.s = s;
+            this.t = t;
+            this.metrics = new SimulationMetrics("alloy", height, width);
 
-            setUpNeighbors();
-            this.executorService = Executors.newFixedThreadPool(NUM_THREADS);
             initializeHeatSources(s, t);
         }
 
-        private void setUpNeighbors() {
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    Region curRegion = grid[y][x];
+        /*
+         * goes on from a checkpoint, iterations still counts from the start of the original run. with mapped the plate
+         * is stepped right in the file, see MappedGrid, otherwise it is read onto the heap once
+         */
+        public Alloy(CheckpointFile checkpoint, int iterations, boolean mapped){
+            this(mapped ? new MappedGrid(checkpoint) : new FlatGrid(checkpoint, StepMode.IN_PLACE), checkpoint.getS(), checkpoint.getT(), iterations);
+            this.startIteration = checkpoint.getIteration();
+        }
 
-                    int[][] surroundings = {{-1, -1}, {-1, 0}, {-1, 1}, {0, -1}, {0, 1}, {1, -1}, {1, 0}, {1, 1}};
+        void initializeHeatSources(double s, double t){
+            grid.setTemperature(0, 0, s);
+            grid.setTemperature(width - 1, height - 1, t);
+        }
 
-                    for (int[] s : surroundings) {
-                        int nX = x + s[1];
-                        int nY = y + s[0];
-                        if(nX >= 0 && nX < width && nY >=0 && nY < height){
-                            curRegion.neighbors.add(grid[nY][nX]);
-                        }
-                    }
-                }
+
+        // has to be called before simulateHeatTransfer, the bands are set up once for the whole run
+        void setExecutionMode(ExecutionMode executionMode, WaitStrategy waitStrategy){
+            this.executionMode = executionMode;
+            this.waitStrategy = waitStrategy;
+        }
+
+        void setTolerance(double tolerance){
+            this.tolerance = tolerance;
+        }
+
+        /*
+         * steps of dt simulated time instead of computeHeatTransfer, only on a FlatGrid. the tolerance then is on the
+         * rate of change, see TimeIntegrator
+         */
+        void setTimeStep(double dt, TimeIntegrator.Scheme scheme){
+            this.dt = dt;
+            this.scheme = scheme;
+        }
+
+        void addListener(SimulationListener listener){
+            listeners.add(listener);
+        }
+
+        // how often the listeners get a snapshot
+        void setSnapshotSchedule(SnapshotSchedule snapshotSchedule){
+            this.snapshotSchedule = snapshotSchedule;
+        }
+
+        /*
+         * writes the plate to file every checkpointInterval iterations and at the end of the run, on a background
+         * thread. one that comes while the last write is still going is skipped, the one at the end waits for it. a
+         * MappedGrid gets no checkpoints in between, the next step would overwrite a synced plate right away and a
+         * crash leaves it torn whatever was synced before, see MappedGrid. it is synced once at the end of the run
+         */
+        void setCheckpointing(int checkpointInterval, Path file){
+            this.checkpointInterval = checkpointInterval;
+            this.checkpointWriter = file == null ? null : new CheckpointWriter(file);
+        }
+
+        // how often a progress line is printed
+        void setLogSchedule(SnapshotSchedule logSchedule){
+            this.logSchedule = logSchedule;
+        }
+
+        double getResidual(){ return residual;}
+
+        SimulationMetrics getMetrics(){ return metrics;}
+
+        int getCompletedIterations(){ return completedIterations;}
+
+        // skips the time stepping and solves for the equilibrium field directly, see SteadyStateSolver
+        void solveSteadyState(SteadyStateSolver.Method method){
+            if (!(grid instanceof FlatGrid)) {
+                throw new IllegalStateException("the steady state solver needs a FlatGrid");
+            }
+            runner = BandRunner.create(executionMode, height, NUM_THREADS, waitStrategy);
+            SteadyStateSolver solver = new SteadyStateSolver((FlatGrid) grid, runner, method);
+            if (tolerance > 0) {
+                solver.setTolerance(tolerance);
+            }
+            long start = System.nanoTime();
+            try {
+                residual = solver.solve();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+            completedIterations = solver.getIterations();
+            finish();
+            System.out.printf("%s solve finished after %d iterations in %.1f ms, residual %.3e%n",
+                    method, completedIterations, (System.nanoTime() - start) / 1e6, residual);
         }
 
-        void initializeHeatSources(double s, double t){
-            grid[0][0].setTemperature(s);
-            grid[height - 1][width -1].setTemperature(t);
-        }
-
-
-        void simulateHeatTransfer(JFrame frame){
-            frame.setSize((int) (vis.getWidth())+3, (int) (vis.getHeight()+30));
-            frame.add(vis);
-            frame.setVisible(true);
-
-            for (int iteration = 0; iteration < iterations; iteration++) {
-                CountDownLatch latch = new CountDownLatch(NUM_THREADS);
-                int rowsPerThread = height/NUM_THREADS;
-                for (int threadIndex = 0; threadIndex < NUM_THREADS; threadIndex++) {
-                    final int startRow = threadIndex * rowsPerThread;
-                    final int endRow = (threadIndex == NUM_THREADS - 1) ? height : startRow + rowsPerThread;
-                    executorService.submit(() -> {
-                        try{
-                            computeHeatTransfer(startRow, endRow);
-                        } finally {
-                            latch.countDown();
-                        }
-                    });
+        void simulateHeatTransfer(){
+            runner = BandRunner.create(executionMode, height, NUM_THREADS, waitStrategy);
+            BandTask step = (band, startRow, endRow) -> computeHeatTransfer(startRow, endRow);
+            TimeIntegrator integrator = null;
+            if (dt > 0) {
+                if (!(grid instanceof FlatGrid flat)) {
+                    throw new IllegalStateException("time steps need a FlatGrid");
                 }
+                integrator = new TimeIntegrator(flat, runner, dt, scheme);
+                System.out.printf("%s steps of dt %.4g, explicit steps are stable up to dt %.4g%n",
+                        integrator.getScheme(), dt, integrator.getStableTimeStep());
+            }
+            // a fused kernel advances several iterations per sweep, the run is rounded up to a whole sweep
+            final int steps = integrator == null ? grid.getStepsPerSweep() : 1;
+            completedIterations = startIteration;
+            int lastCheckpoint = startIteration;
+            String[] bands = new String[runner.getBands()];
+            for (int b = 0; b < bands.length; b++) {
+                bands[b] = "band " + b;
+            }
+            metrics.setWorkers(bands);
+            metrics.start(startIteration);
+            snapshotSchedule.start(startIteration);
+            logSchedule.start(startIteration);
+            if (grid instanceof MappedGrid mapped) {
+                mapped.start();
+            }
+            // a step that was interrupted may be half done
+            boolean torn = false;
+            for (int iteration = startIteration; iteration < iterations; iteration += steps) {
+                StepEvent event = new StepEvent();
+                event.begin();
                 try {
-                    latch.await();
+                    // the integrator writes the plate's current buffer directly, there is nothing to swap
+                    if (integrator != null) {
+                        residual = integrator.step();
+                    } else {
+                        residual = runner.run(step);
+                        grid.swapBuffers();
+                    }
                 }catch (InterruptedException e){
                     Thread.currentThread().interrupt();
+                    torn = true;
                     break;
                 }
-                if(iteration % 5 == 0 && iteration != 0){
-                    writeToMap();
-                    SwingUtilities.invokeLater(vis::repaint);
-                    if(iteration % 1000 == 0) {
-                        System.out.println("iteration " + iteration);
+                completedIterations = iteration + steps;
+                event.end();
+                long slowest = recordStep();
+                if (event.shouldCommit()) {
+                    event.iteration = completedIterations;
+                    event.residual = residual;
+                    event.cells = (long) width * height * steps;
+                    event.slowestNanos = slowest;
+                    event.commit();
+                }
+                if (residual < tolerance) {
+                    break;
+                }
+                if (!listeners.isEmpty() && snapshotSchedule.isDue(completedIterations)) {
+                    long start = System.nanoTime();
+                    SnapshotEvent snapshotEvent = new SnapshotEvent();
+                    snapshotEvent.begin();
+                    grid.copyTemperatures(snapshot());
+                    for (SimulationListener listener : listeners) {
+                        listener.onSnapshot(completedIterations, residual, snapshot);
                     }
+                    metrics.snapshotDone(System.nanoTime() - start);
+                    if (snapshotEvent.shouldCommit()) {
+                        snapshotEvent.iteration = completedIterations;
+                        snapshotEvent.commit();
+                    }
+                }
+                if (logSchedule.isDue(completedIterations)) {
+                    System.out.printf("iteration %d residual %.3e (overhead %.0f ns/iteration)%n", completedIterations, residual, runner.getOverheadNanosPerIteration());
+                }
+                // a fused kernel may step over the exact multiple, a skipped one is tried again after the next step
+                if (checkpointInterval > 0 && !(grid instanceof MappedGrid) && completedIterations - lastCheckpoint >= checkpointInterval && checkpoint()) {
+                    lastCheckpoint = completedIterations;
                 }
             }
-        }
-        // map the cartesian coordinates to the value. An alternative to this would be to modify the logic in the grid[][]
-        // and replace it with a concurrent hashmap, but this is due in two days, so...
-        private void writeToMap(){
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    int[] p = {x, y};
-                    tempMap.put(Arrays.toString(p), grid[y][x].temperature);
+            if (grid instanceof MappedGrid mapped) {
+                // a mapped plate is always left synced, and only then can it be resumed
+                if (!torn) {
+                    mapped.finish(completedIterations);
+                }
+            } else if (checkpointInterval > 0 && completedIterations != lastCheckpoint) {
+                // the last one must not be skipped because the one before is still being written
+                if (checkpointWriter != null) {
+                    checkpointWriter.await();
                 }
+                checkpoint();
+            }
+            finish();
+            System.out.printf("finished after %d iterations, residual %.3e%n", completedIterations, residual);
+            if (integrator != null) {
+                System.out.printf("simulated time %.4g%n", (completedIterations - startIteration) * dt);
+            }
+        }
+        // the final field goes to every listener regardless of the schedule
+        private void finish(){
+            if (listeners.isEmpty()) return;
+            grid.copyTemperatures(snapshot());
+            for (SimulationListener listener : listeners) {
+                listener.onFinished(completedIterations, residual, snapshot);
             }
         }
 
-        private void computeHeatTransfer(int startRow, int endRow){
-            for (int y = startRow; y < endRow; y++) {
-                for (int x = 0; x < width; x++) {
-                    Region curRegion = grid[y][x];
-                    if((x==0 && y==0) || (x==width-1 && y==height-1)){
-                        continue;
-                    }
-                    double totalChange = 0.0;
-                    int neighborCount = 0;
-
-                    for (Region neighbor : curRegion.neighbors){
-                        // alternative: collect all changes without locking
-                        double tempDifference = neighbor.temperature - curRegion.temperature;
-                        double heatTransfer = tempDifference * curRegion.thermalCoefficient;
-                        //totalChange += heatTransfer;
-                        totalChange += heatTransfer;
-                        neighborCount++;
+        /*
+         * the bands' compute and barrier time go to the metrics, returns the slowest band's compute time. with a
+         * TimeIntegrator that is only its last pass
+         */
+        private long recordStep(){
+            long wall = runner.getLastWallNanos();
+            long slowest = 0;
+            for (int b = 0; b < runner.getBands(); b++) {
+                long compute = runner.getLastComputeNanos(b);
+                metrics.workerStep(b, compute, Math.max(0, wall - compute));
+                slowest = Math.max(slowest, compute);
+            }
+            metrics.stepDone(completedIterations, residual);
+            return slowest;
+        }
 
-                    }
-                    if (neighborCount > 0){
-                        double change = totalChange / neighborCount;
-                        double t = curRegion.temperature;
-                        curRegion.setTemperature(t+change);
-                    }
-                }
+        // false if it was skipped because the last write is still going
+        private boolean checkpoint(){
+            if (checkpointWriter == null) {
+                return true;
+            }
+            if (checkpointWriter.isBusy()) {
+                return false;
+            }
+            if (checkpointTemperatures == null) {
+                checkpointTemperatures = new double[width * height];
+                checkpointCoefficients = new double[width * height];
+                grid.copyCoefficients(checkpointCoefficients);
+            }
+            grid.copyTemperatures(checkpointTemperatures);
+            return checkpointWriter.write(width, height, completedIterations, s, t, grid.getSeed(), checkpointTemperatures, checkpointCoefficients);
+        }
 
+        private double[] snapshot(){
+            if (snapshot == null) {
+                snapshot = new double[width * height];
             }
+            return snapshot;
+        }
+
+        private double computeHeatTransfer(int startRow, int endRow){
+            return grid.computeHeatTransfer(startRow, endRow);
         }
 
         public void shutdown() {
-            executorService.shutdown();
-            try {
-                if (!executorService.awaitTermination(5, TimeUnit.SECONDS)) {
-                    executorService.shutdownNow();
-                    //wait again to ensure shutdown
-                    if (!executorService.awaitTermination(2, TimeUnit.SECONDS)) {
-                        System.err.println("ExecutorService did not terminate");
-                    }
-                }
-            } catch (InterruptedException e) {
-                executorService.shutdownNow();
-                Thread.currentThread().interrupt();
+            if (runner != null) {
+                runner.close();
+            }
+            if (checkpointWriter != null) {
+                checkpointWriter.close();
+            }
+        }
+    }
+    /*
+     * options: --headless, --snapshot-every <n|250ms|2s|never>, --log-every <n|250ms|2s|never>,
+     * --checkpoint-every <n> with --checkpoint-file <path>, --resume <path> to go on from a checkpoint, and
+     * --mapped <path> to step the plate inside that file, which is created if it does not exist yet. it is only synced
+     * at the end of the run and can not be resumed after a crash, the plate in it is torn, so it takes no
+     * --checkpoint-every. --record <path> to stream every snapshot into a FieldRecorder file. --metrics <path|->
+     * writes a csv line of SimulationMetrics to the file or stdout every --metrics-every <ms>, 1000 by default, the
+     * metrics are on JMX either way. --sparse only sweeps the tiles that still change at all, see SparseKernel, the
+     * plate comes out the same. --seed <n> draws the coefficients of a new plate from that seed, see
+     * CoefficientField, otherwise the seed is random and printed so the run can be repeated. --dt <dt> steps dt of simulated time per iteration with a
+     * TimeIntegrator, --scheme <explicit|implicit|auto> picks how, auto by default takes explicit steps while dt is
+     * stable and ADI above that. --steady <sor|multigrid> skips the time stepping and solves for the equilibrium
+     * directly, see SteadyStateSolver
+     */
+    public static void main(String[] args) throws IOException {
+        boolean headless = false;
+        SnapshotSchedule snapshots = SnapshotSchedule.everyIterations(5);
+        SnapshotSchedule log = SnapshotSchedule.everyIterations(1000);
+        int checkpointInterval = 0;
+        Path checkpointFile = null;
+        Path resume = null;
+        Path mapped = null;
+        Path record = null;
+        String metricsReport = null;
+        long metricsPeriod = 1000;
+        boolean sparseTiles = false;
+        long seed = CoefficientField.randomSeed();
+        double dt = 0.0;
+        TimeIntegrator.Scheme scheme = TimeIntegrator.Scheme.AUTO;
+        SteadyStateSolver.Method steady = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--headless" -> headless = true;
+                case "--checkpoint-every" -> checkpointInterval = Integer.parseInt(args[++i]);
+                case "--checkpoint-file" -> checkpointFile = Path.of(args[++i]);
+                case "--resume" -> resume = Path.of(args[++i]);
+                case "--mapped" -> mapped = Path.of(args[++i]);
+                case "--record" -> record = Path.of(args[++i]);
+                case "--metrics" -> metricsReport = args[++i];
+                case "--metrics-every" -> metricsPeriod = Long.parseLong(args[++i]);
+                case "--sparse" -> sparseTiles = true;
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                case "--dt" -> dt = Double.parseDouble(args[++i]);
+                case "--scheme" -> scheme = TimeIntegrator.Scheme.valueOf(args[++i].toUpperCase());
+                case "--steady" -> steady = SteadyStateSolver.Method.valueOf(args[++i].toUpperCase());
+                case "--snapshot-every" -> snapshots = SnapshotSchedule.parse(args[++i]);
+                case "--log-every" -> log = SnapshotSchedule.parse(args[++i]);
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
             }
         }
 
-        class Region{
-            CopyOnWriteArrayList<Region> neighbors;
-            double thermalCoefficient;
-            private volatile double temperature;
-            ReentrantLock lock;
+        // checked before the file is created
+        if (mapped != null && checkpointInterval > 0) {
+            throw new IllegalArgumentException("--checkpoint-every does not work with --mapped, the file is only synced at the end of the run");
+        }
 
-            // we assume any region is made of 3 alloys with 3 different thermal coefficients with a 20% variance in the amount each alloy.
-            // in this context we can interpret that the variance scales linearly to the thermal coefficient
-            public Region(double c1, double c2, double c3){
-                neighbors = new CopyOnWriteArrayList<>();
-                lock = new ReentrantLock();
-                // 20% variation
-                thermalCoefficient = (c1*generateUniformRandom(0.8, 1.2) + c2*generateUniformRandom(0.8, 1.2) + (c3*generateUniformRandom(0.8, 1.2))) / 3;
+        Simulation simulation = new Simulation();
+        Simulation.Alloy alloy;
+        if (mapped != null) {
+            alloy = Files.exists(mapped)
+                    ? simulation.new Alloy(CheckpointFile.open(mapped), 60000000, true)
+                    : simulation.new Alloy(MappedGrid.create(mapped, 200, 100, 1000.0, 800.0, new CoefficientField(seed, 1.25, 1.0, 1.75)), 1000.0, 800.0, 60000000);
+        } else if (resume != null) {
+            try (CheckpointFile checkpoint = CheckpointFile.open(resume)) {
+                alloy = simulation.new Alloy(checkpoint, 60000000, false);
             }
+        } else {
+            alloy = simulation.new Alloy(new FlatGrid(200, 100, new CoefficientField(seed, 1.25, 1.0, 1.75), StepMode.IN_PLACE), 1000.0, 800.0, 60000000);
+        }
+        System.out.println("coefficients from seed " + alloy.grid.getSeed());
+        //alloy = simulation.new Alloy(200, 1000, 1000.0, 800.0, 1.25, 2.5, 2.25, 60000000); // cool stuff happens when you uncomment this
 
-            static double generateUniformRandom(double min, double max) {
-                return min + (max - min) * ThreadLocalRandom.current().nextDouble();
+        SparseKernel sparse = null;
+        if (sparseTiles) {
+            if (!(alloy.grid instanceof FlatGrid flat)) {
+                throw new IllegalArgumentException("--sparse does not work with --mapped");
             }
+            sparse = new SparseKernel(flat.getWidth(), flat.getHeight(), 16);
+            flat.setKernel(sparse);
+        }
 
-            void setTemperature(double temperature) {
-                lock.lock();
-                try {
-                    this.temperature = temperature;
-                }finally {
-                    lock.unlock();
-                }
+        alloy.setExecutionMode(ExecutionMode.PERSISTENT_WORKERS, WaitStrategy.spinThenPark(1 << 10));
+        alloy.setTolerance(1e-9);
+        if (dt > 0) {
+            if (mapped != null || sparse != null) {
+                throw new IllegalArgumentException("--dt does not work with --mapped or --sparse");
             }
+            alloy.setTimeStep(dt, scheme);
+        }
+        if (steady != null && (mapped != null || sparse != null || dt > 0)) {
+            throw new IllegalArgumentException("--steady does not work with --mapped, --sparse or --dt");
+        }
+        alloy.setSnapshotSchedule(snapshots);
+        alloy.setLogSchedule(log);
+        alloy.setCheckpointing(checkpointInterval, checkpointFile);
+        FieldRecorder recorder = null;
+        if (record != null) {
+            recorder = new FieldRecorder(record, alloy.grid.getWidth(), alloy.grid.getHeight(), 8);
+            alloy.addListener(recorder);
         }
-    }
-    public static void main(String[] args) {
-        Simulation simulation = new Simulation();
-        Simulation.Alloy alloy = simulation.new Alloy(200, 100, 1000.0, 800.0, 1.25, 1.0, 1.75, 60000000);
-        //Simulation.Alloy alloy = simulation.new Alloy(200, 1000, 1000.0, 800.0, 1.25, 2.5, 2.25, 60000000); // cool stuff happens when you uncomment this
-
-        JFrame frame = new JFrame("Heat Transfer Simulation");
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        alloy.simulateHeatTransfer(frame);
+        if (!headless) {
+            alloy.addListener(Visualization.open("Heat Transfer Simulation", alloy.grid.getHeight(), alloy.grid.getWidth(), alloy.s, alloy.t, alloy.getMetrics()));
+        }
+        alloy.getMetrics().register();
+        if (metricsReport != null) {
+            alloy.getMetrics().startReporting(metricsReport.equals("-") ? null : Path.of(metricsReport), metricsPeriod, TimeUnit.MILLISECONDS);
+        }
 
+        if (steady != null) {
+            alloy.solveSteadyState(steady);
+        } else {
+            alloy.simulateHeatTransfer();
+        }
+        alloy.shutdown();
+        alloy.getMetrics().stopReporting();
+        if (sparse != null) {
+            System.out.printf("swept %.1f%% of the tiles%n", 100 * sparse.getSweptFraction());
+        }
+        if (recorder != null) {
+            recorder.close();
+        }
     }
 }
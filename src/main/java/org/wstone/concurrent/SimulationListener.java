@@ -0,0 +1,15 @@
+package org.wstone.concurrent;
+
+/*
+ * observer for a running simulation, called on the simulation thread whenever the SnapshotSchedule says so and once
+ * more when the run ends. temperatures is row-major (y * width + x) and only valid during the call, a listener that
+ * keeps it around has to copy it. listeners should return quickly, the next step waits for them.
+ */
+public interface SimulationListener {
+
+    void onSnapshot(int iteration, double residual, double[] temperatures);
+
+    default void onFinished(int iterations, double residual, double[] temperatures){
+        onSnapshot(iterations, residual, temperatures);
+    }
+}
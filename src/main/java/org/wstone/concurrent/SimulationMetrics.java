@@ -0,0 +1,315 @@
+package org.wstone.concurrent;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * counters for a running simulation, updated by Alloy or the Organizer after every step and read by JMX and by the
+ * periodic report. a worker is a band for Alloy and a server for the Organizer.
+ *
+ * the simulation thread is the only writer of the step and worker counters, so it updates them with a plain read and
+ * a lazySet: no lock, no allocation, no fence on the hot path. readers on other threads may see a step late but never
+ * a torn value. render times come from the painting thread, which is the only writer of those.
+ */
+public class SimulationMetrics implements SimulationMetricsMBean {
+    private static final int COMPUTE = 0;
+    private static final int WAIT = 1;
+    private static final int SENT = 2;
+    private static final int RECEIVED = 3;
+    private static final int RTT = 4;
+    private static final int FIELDS = 5;
+    // an rtt sample counts this much into the average
+    private static final double RTT_WEIGHT = 1.0 / 16;
+
+    private final String name;
+    private final long cells;
+    private final AtomicLong iterations = new AtomicLong();
+    private final AtomicLong residualBits = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+    // count and total nanos of snapshots, then of renders
+    private final AtomicLongArray latencies = new AtomicLongArray(4);
+    private volatile Workers workers = new Workers(new String[0]);
+    private volatile long startNanos = System.nanoTime();
+    private volatile long startIterations;
+    private volatile long simulationThread = -1;
+    private volatile long startAllocated;
+    // set by the report, see getCellUpdatesPerSecond
+    private volatile double reportedRate = Double.NaN;
+    private ScheduledExecutorService reporter;
+    private Writer report;
+    private Report reportLine;
+
+    public SimulationMetrics(String name, int height, int width){
+        this.name = name;
+        this.cells = (long) height * width;
+    }
+
+    // a new set of workers, e.g. after the organizer lost a server. allocates, so not for every step
+    public void setWorkers(String... names){
+        workers = new Workers(names.clone());
+    }
+
+    // called on the simulation thread when a run starts, rates and allocations count from here
+    public void start(int firstIteration){
+        iterations.set(firstIteration);
+        startIterations = firstIteration;
+        startNanos = System.nanoTime();
+        simulationThread = Thread.currentThread().getId();
+        startAllocated = allocatedBytes(simulationThread);
+    }
+
+    public void stepDone(int iteration, double residual){
+        iterations.lazySet(iteration);
+        residualBits.lazySet(Double.doubleToRawLongBits(residual));
+    }
+
+    // time the worker spent on the last step, and how long it waited for the others or for the network
+    public void workerStep(int worker, long computeNanos, long waitNanos){
+        AtomicLongArray values = workers.values;
+        int i = worker * FIELDS;
+        values.lazySet(i + COMPUTE, values.get(i + COMPUTE) + computeNanos);
+        values.lazySet(i + WAIT, values.get(i + WAIT) + waitNanos);
+    }
+
+    // byte counts are totals, rttNanos is one sample that goes into a moving average
+    public void workerTraffic(int worker, long bytesSent, long bytesReceived, long rttNanos){
+        AtomicLongArray values = workers.values;
+        int i = worker * FIELDS;
+        values.lazySet(i + SENT, bytesSent);
+        values.lazySet(i + RECEIVED, bytesReceived);
+        long rtt = values.get(i + RTT);
+        values.lazySet(i + RTT, rtt == 0 ? rttNanos : (long) (rtt + (rttNanos - rtt) * RTT_WEIGHT));
+    }
+
+    public void snapshotDone(long nanos){
+        latencies.lazySet(0, latencies.get(0) + 1);
+        latencies.lazySet(1, latencies.get(1) + nanos);
+    }
+
+    public void renderDone(long nanos){
+        latencies.lazySet(2, latencies.get(2) + 1);
+        latencies.lazySet(3, latencies.get(3) + nanos);
+    }
+
+    // under org.wstone:type=SimulationMetrics,name=<name>, replacing a run of the same name
+    public void register(){
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("org.wstone:type=SimulationMetrics,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            System.err.println("metrics not registered with JMX: " + e.getMessage());
+        }
+    }
+
+    /*
+     * appends a csv line every period, to file or to stdout when file is null. the header is repeated whenever the
+     * workers change. the columns are totals except for the rate, which is over the period
+     */
+    public void startReporting(Path file, long period, TimeUnit unit) throws IOException {
+        stopReporting();
+        report = file == null ? new OutputStreamWriter(System.out) : Files.newBufferedWriter(file);
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reportLine = new Report();
+        reporter.scheduleAtFixedRate(reportLine, period, period, unit);
+    }
+
+    // waits for a report that is being written, then writes one last line
+    public void stopReporting(){
+        if (reporter == null) {
+            return;
+        }
+        reporter.shutdown();
+        try {
+            reporter.awaitTermination(10, TimeUnit.SECONDS);
+            reportLine.run();
+            if (report instanceof BufferedWriter) {
+                report.close();
+            } else {
+                report.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("metrics report: " + e.getMessage());
+        }
+        reporter = null;
+    }
+
+    @Override
+    public long getIterations(){ return iterations.get();}
+
+    @Override
+    public double getResidual(){ return Double.longBitsToDouble(residualBits.get());}
+
+    @Override
+    public double getCellUpdatesPerSecond(){
+        if (!Double.isNaN(reportedRate)) {
+            return reportedRate;
+        }
+        long nanos = System.nanoTime() - startNanos;
+        return nanos == 0 ? 0 : (iterations.get() - startIterations) * cells * 1e9 / nanos;
+    }
+
+    @Override
+    public double getSnapshotMicros(){ return average(0);}
+
+    @Override
+    public double getRenderMicros(){ return average(2);}
+
+    private double average(int slot){
+        long count = latencies.get(slot);
+        return count == 0 ? 0 : latencies.get(slot + 1) / 1e3 / count;
+    }
+
+    @Override
+    public long getGcCount(){
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    @Override
+    public long getGcMillis(){
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+
+    @Override
+    public long getAllocatedBytes(){
+        long allocated = allocatedBytes(simulationThread);
+        return allocated < 0 ? -1 : allocated - startAllocated;
+    }
+
+    private static long allocatedBytes(long thread){
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (thread < 0 || !(threads instanceof com.sun.management.ThreadMXBean sun)) {
+            return -1;
+        }
+        return sun.getThreadAllocatedBytes(thread);
+    }
+
+    @Override
+    public String[] getWorkerNames(){ return workers.names.clone();}
+
+    @Override
+    public long[] getWorkerComputeMillis(){ return column(COMPUTE, 1_000_000);}
+
+    @Override
+    public long[] getWorkerWaitMillis(){ return column(WAIT, 1_000_000);}
+
+    @Override
+    public long[] getWorkerBytesSent(){ return column(SENT, 1);}
+
+    @Override
+    public long[] getWorkerBytesReceived(){ return column(RECEIVED, 1);}
+
+    @Override
+    public double[] getWorkerRttMicros(){
+        long[] nanos = column(RTT, 1);
+        double[] micros = new double[nanos.length];
+        for (int w = 0; w < nanos.length; w++) {
+            micros[w] = nanos[w] / 1e3;
+        }
+        return micros;
+    }
+
+    private long[] column(int field, long divisor){
+        Workers current = workers;
+        long[] column = new long[current.names.length];
+        for (int w = 0; w < column.length; w++) {
+            column[w] = current.values.get(w * FIELDS + field) / divisor;
+        }
+        return column;
+    }
+
+    private static final class Workers {
+        final String[] names;
+        final AtomicLongArray values;
+
+        Workers(String[] names){
+            this.names = names;
+            this.values = new AtomicLongArray(names.length * FIELDS);
+        }
+    }
+
+    // one line of the report, it remembers the last line to compute the rate
+    private final class Report implements Runnable {
+        private Workers header;
+        private long lastNanos = startNanos;
+        private long lastIterations = startIterations;
+
+        @Override
+        public void run(){
+            Workers current = workers;
+            long now = System.nanoTime();
+            long iteration = getIterations();
+            if (lastNanos - startNanos < 0) {
+                // the run started after the report did
+                lastNanos = startNanos;
+                lastIterations = startIterations;
+            }
+            if (now > lastNanos) {
+                reportedRate = Math.max(0, iteration - lastIterations) * cells * 1e9 / (now - lastNanos);
+            }
+            lastNanos = now;
+            lastIterations = iteration;
+            StringBuilder line = new StringBuilder();
+            if (current != header) {
+                header = current;
+                line.append("time_ms,iterations,cell_updates_per_s,residual,snapshot_us,render_us,gc_count,gc_ms,allocated_bytes");
+                for (String worker : current.names) {
+                    String w = worker.replace(',', '_');
+                    line.append(',').append(w).append(" compute_ms,").append(w).append(" wait_ms,").append(w)
+                            .append(" sent_bytes,").append(w).append(" received_bytes,").append(w).append(" rtt_us");
+                }
+                line.append('\n');
+            }
+            line.append(System.currentTimeMillis()).append(',').append(iteration).append(',')
+                    .append(String.format("%.4g,%.4g,%.1f,%.1f,", reportedRate, getResidual(), getSnapshotMicros(), getRenderMicros()))
+                    .append(getGcCount()).append(',').append(getGcMillis()).append(',').append(getAllocatedBytes());
+            long[] compute = getWorkerComputeMillis();
+            long[] wait = getWorkerWaitMillis();
+            long[] sent = getWorkerBytesSent();
+            long[] received = getWorkerBytesReceived();
+            double[] rtt = getWorkerRttMicros();
+            for (int w = 0; w < compute.length; w++) {
+                line.append(',').append(compute[w]).append(',').append(wait[w]).append(',').append(sent[w])
+                        .append(',').append(received[w]).append(',').append(String.format("%.1f", rtt[w]));
+            }
+            line.append('\n');
+            try {
+                report.write(line.toString());
+                report.flush();
+            } catch (IOException e) {
+                System.err.println("metrics report: " + e.getMessage());
+            }
+        }
+    }
+}
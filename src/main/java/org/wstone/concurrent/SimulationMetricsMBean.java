@@ -0,0 +1,36 @@
+package org.wstone.concurrent;
+
+// what SimulationMetrics shows over JMX, e.g. in jconsole under org.wstone
+public interface SimulationMetricsMBean {
+
+    long getIterations();
+
+    double getResidual();
+
+    // over the last reporting period if a report is running, since the start of the run otherwise
+    double getCellUpdatesPerSecond();
+
+    double getSnapshotMicros();
+
+    double getRenderMicros();
+
+    long getGcCount();
+
+    long getGcMillis();
+
+    // by the thread running the simulation since the run started, -1 if the jvm cannot tell
+    long getAllocatedBytes();
+
+    // one entry per band or server, in the order of getWorkerNames()
+    String[] getWorkerNames();
+
+    long[] getWorkerComputeMillis();
+
+    long[] getWorkerWaitMillis();
+
+    long[] getWorkerBytesSent();
+
+    long[] getWorkerBytesReceived();
+
+    double[] getWorkerRttMicros();
+}
@@ -0,0 +1,16 @@
+package org.wstone.concurrent;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// taking a snapshot and handing it to every listener, for Flight Recorder, see StepEvent
+@Name("org.wstone.Snapshot")
+@Label("Simulation Snapshot")
+@Category("Heat Propagation")
+@Description("Copying or gathering the plate and running the listeners")
+public class SnapshotEvent extends jdk.jfr.Event {
+    @Label("Iteration")
+    public int iteration;
+}
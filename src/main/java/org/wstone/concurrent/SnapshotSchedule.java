@@ -0,0 +1,79 @@
+package org.wstone.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * decides after which steps a snapshot or a progress line is due, either every n iterations or every so many
+ * milliseconds of wall-clock time. the wall-clock form keeps the output rate the same no matter how fast the grid
+ * steps. a schedule keeps state, start() resets it at the beginning of a run and one schedule serves one run at a time.
+ */
+public final class SnapshotSchedule {
+    private final int everyIterations;
+    private final long everyNanos;
+    private long nextIteration;
+    private long nextNanos;
+
+    private SnapshotSchedule(int everyIterations, long everyNanos){
+        this.everyIterations = everyIterations;
+        this.everyNanos = everyNanos;
+    }
+
+    public static SnapshotSchedule everyIterations(int iterations){
+        if (iterations <= 0) {
+            throw new IllegalArgumentException("iterations must be positive: " + iterations);
+        }
+        return new SnapshotSchedule(iterations, 0);
+    }
+
+    public static SnapshotSchedule every(long interval, TimeUnit unit){
+        if (interval <= 0) {
+            throw new IllegalArgumentException("interval must be positive: " + interval);
+        }
+        return new SnapshotSchedule(0, unit.toNanos(interval));
+    }
+
+    public static SnapshotSchedule never(){
+        return new SnapshotSchedule(0, 0);
+    }
+
+    // "500" is every 500 iterations, "250ms" or "2s" is wall-clock, "never" turns it off
+    public static SnapshotSchedule parse(String spec){
+        if (spec.equals("never")) return never();
+        if (spec.endsWith("ms")) return every(Long.parseLong(spec.substring(0, spec.length() - 2)), TimeUnit.MILLISECONDS);
+        if (spec.endsWith("s")) return every(Long.parseLong(spec.substring(0, spec.length() - 1)), TimeUnit.SECONDS);
+        return everyIterations(Integer.parseInt(spec));
+    }
+
+    public void start(){
+        start(0);
+    }
+
+    // for a run that goes on from a checkpoint, the first one is due at the next multiple after firstIteration
+    public void start(int firstIteration){
+        nextIteration = ((long) firstIteration / Math.max(1, everyIterations) + 1) * everyIterations;
+        nextNanos = System.nanoTime() + everyNanos;
+    }
+
+    // called after every step (or fused sweep) with the number of iterations done so far
+    public boolean isDue(int completedIterations){
+        if (everyIterations > 0) {
+            if (completedIterations < nextIteration) return false;
+            nextIteration = ((long) completedIterations / everyIterations + 1) * everyIterations;
+            return true;
+        }
+        if (everyNanos > 0) {
+            long now = System.nanoTime();
+            if (now - nextNanos < 0) return false;
+            nextNanos = now + everyNanos;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public String toString(){
+        if (everyIterations > 0) return "every " + everyIterations + " iterations";
+        if (everyNanos > 0) return "every " + TimeUnit.NANOSECONDS.toMillis(everyNanos) + " ms";
+        return "never";
+    }
+}
@@ -0,0 +1,168 @@
+package org.wstone.concurrent;
+
+import java.util.Arrays;
+
+/*
+ * skips the parts of the plate that have settled. the plate is cut into tileSize x tileSize tiles and a tile is only
+ * swept while it, or one of its 8 neighbor tiles, changed at all in its last sweep. the heat front
+ * wakes the tiles ahead of it one tile per step, and a tile that settles behind it goes back to sleep, so the start of
+ * a run (a cold plate with two hot corners) and its tail (everything close to equilibrium) only pay for the tiles that
+ * still move.
+ *
+ * the cell update is ScalarKernel.row, tiles are swept row by row in the same order as the plain sweep. stepping in
+ * place a change travels along the sweep within one step, further than the one tile stepDone() looks ahead, so while
+ * sweeping a sleeping tile row segment is swept anyway if the row above it or the segment to its left changed earlier
+ * in the same step. a segment is then only skipped while nothing it reads changed since it was last swept without
+ * changing, so sweeping it would give the same values again and the result, residual included, is bit-for-bit the
+ * dense one, in either StepMode. that holds for a single band: in place, a band's first row reads the row above while
+ * another band may be writing it, which the dense sweep leaves to timing as well.
+ *
+ * there is deliberately no threshold below which a change counts as settled. a tile skipping small changes lags
+ * behind by all of them, its neighbors keep moving it and nothing bounds how far that drifts from the dense run, the
+ * skipped changes are exactly what the kernel never looks at. so only what is exactly settled is skipped, which is
+ * what the cold part of the plate ahead of the front and whatever reached equilibrium to the last bit are.
+ *
+ * bands may cut through a tile, the changes are kept per tile row segment so every band only writes its own rows.
+ * which tiles run is decided in stepDone(), after all bands have finished. works in either StepMode: when double
+ * buffered a tile that goes to sleep copies itself into dst once so both buffers agree from then on.
+ */
+public class SparseKernel implements StencilKernel {
+    private static final byte ACTIVE = 0;
+    // skipped for the first time, dst still holds the step before
+    private static final byte SETTLING = 1;
+    private static final byte ASLEEP = 2;
+
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int tilesX;
+    private final int tilesY;
+    private final byte[] state;
+    // largest change of the last sweep of each tile row segment, cell row y and tile column tx at y * tilesX + tx
+    private final double[] rowChange;
+    private final double[] tileChange;
+    // change of each tile row segment in the current step, -1 if it was skipped
+    private final double[] stepChange;
+    private int steps;
+    private long sweptSegments;
+
+    public SparseKernel(int width, int height, int tileSize){
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tile size has to be positive");
+        }
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.tilesX = (width + tileSize - 1) / tileSize;
+        this.tilesY = (height + tileSize - 1) / tileSize;
+        this.state = new byte[tilesX * tilesY];
+        this.rowChange = new double[height * tilesX];
+        this.tileChange = new double[tilesX * tilesY];
+        this.stepChange = new double[height * tilesX];
+    }
+
+    @Override
+    public boolean requiresDoubleBuffering(){ return false;}
+
+    @Override
+    public double sweep(double[] src, double[] dst, double[] coef, int width, int height, int startRow, int endRow){
+        if (width != this.width || height != this.height) {
+            throw new IllegalArgumentException("kernel was made for a " + this.height + " x " + this.width + " plate");
+        }
+        boolean inPlace = src == dst;
+        double residual = 0.0;
+        for (int y = startRow; y < endRow; y++) {
+            int tileRow = (y / tileSize) * tilesX;
+            int rowStart = y * width;
+            int changes = y * tilesX;
+            for (int tx = 0; tx < tilesX; tx++) {
+                int x0 = tx * tileSize;
+                int x1 = Math.min(width, x0 + tileSize);
+                byte s = state[tileRow + tx];
+                if (s == ACTIVE || (inPlace && changedUpstream(y, tx, startRow))) {
+                    rowChange[changes + tx] = ScalarKernel.row(src, dst, coef, rowStart, width, y, x0, x1, width, height);
+                    stepChange[changes + tx] = rowChange[changes + tx];
+                } else {
+                    if (s == SETTLING && !inPlace) {
+                        System.arraycopy(src, rowStart + x0, dst, rowStart + x0, x1 - x0);
+                    }
+                    stepChange[changes + tx] = -1.0;
+                }
+                residual = Math.max(residual, rowChange[changes + tx]);
+            }
+        }
+        return residual;
+    }
+
+    /*
+     * a segment of row y already read a cell this step's in-place sweep changed: one in the row above, only when that
+     * row is this band's, or the last cell of the segment to the left
+     */
+    private boolean changedUpstream(int y, int tx, int startRow){
+        if (tx > 0 && stepChange[y * tilesX + tx - 1] > 0) {
+            return true;
+        }
+        if (y > startRow) {
+            int above = (y - 1) * tilesX;
+            for (int x = Math.max(0, tx - 1); x <= Math.min(tilesX - 1, tx + 1); x++) {
+                if (stepChange[above + x] > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // decides which tiles the next step sweeps, FlatGrid calls it once every band is done
+    @Override
+    public void stepDone(){
+        Arrays.fill(tileChange, 0.0);
+        for (int y = 0; y < height; y++) {
+            int tileRow = (y / tileSize) * tilesX;
+            int changes = y * tilesX;
+            for (int tx = 0; tx < tilesX; tx++) {
+                tileChange[tileRow + tx] = Math.max(tileChange[tileRow + tx], rowChange[changes + tx]);
+                if (stepChange[changes + tx] >= 0) {
+                    sweptSegments++;
+                }
+            }
+        }
+        steps++;
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                int tile = ty * tilesX + tx;
+                if (moving(tx, ty)) {
+                    state[tile] = ACTIVE;
+                } else {
+                    state[tile] = state[tile] == ACTIVE ? SETTLING : ASLEEP;
+                }
+            }
+        }
+    }
+
+    // the tile or one of its neighbors changed in its last sweep
+    private boolean moving(int tx, int ty){
+        for (int y = Math.max(0, ty - 1); y <= Math.min(tilesY - 1, ty + 1); y++) {
+            for (int x = Math.max(0, tx - 1); x <= Math.min(tilesX - 1, tx + 1); x++) {
+                if (tileChange[y * tilesX + x] > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // share of the tiles that will be swept in the next step
+    public double getActiveFraction(){
+        int active = 0;
+        for (byte s : state) {
+            if (s == ACTIVE) active++;
+        }
+        return (double) active / state.length;
+    }
+
+    // tile row segments swept over all steps so far against what the dense sweep would have done
+    public double getSweptFraction(){
+        return steps == 0 ? 1.0 : (double) sweptSegments / ((long) steps * stepChange.length);
+    }
+}
@@ -0,0 +1,373 @@
+package org.wstone.concurrent;
+
+import java.util.Arrays;
+
+/*
+ * solves for the equilibrium field directly instead of time stepping towards it.
+ *
+ * a cell stops changing once coef * (mean of its neighbors - t) = 0. the coefficient only scales how fast a cell
+ * moves, so the equilibrium is the field where every cell except the two heat sources equals the mean of its
+ * neighbors. multiplied out by the neighbor count that is n * t - sum of neighbors = 0, a symmetric system (the graph
+ * laplacian of the plate) with the two sources as fixed values. the residual we report is still
+ * coef * (mean - t), the change one explicit step would make, so the tolerance means the same thing as in
+ * Alloy.setTolerance.
+ *
+ * SOR sweeps the cells in four colors by (x % 2, y % 2). with 8 neighbors a red-black checkerboard is not enough since
+ * diagonal neighbors share a color, but no two cells of the same one of the four colors touch. every color is done by
+ * all bands at once, so the result does not depend on the number of threads.
+ *
+ * MULTIGRID uses a geometric V-cycle (four color gauss-seidel smoothing, cell-centered 2x2 coarsening, bilinear
+ * prolongation and its transpose as restriction) as the preconditioner of a conjugate gradient solve. plain V-cycles
+ * only converged by about 0.8 per cycle here: each point source pins a whole coarse cell on the coarse levels, which
+ * gets the field around the source slightly wrong, and the CG iteration takes care of those few slow modes.
+ *
+ * the fine level always runs on the BandRunner, the coarse levels are small enough for the calling thread.
+ */
+public class SteadyStateSolver {
+
+    public enum Method {
+        SOR,
+        MULTIGRID
+    }
+
+    private static final int SMOOTHING_SWEEPS = 2;
+    private static final int COARSEST_SWEEPS = 50;
+    // SOR only looks at the residual every few sweeps, it costs as much as a sweep
+    private static final int CHECK_INTERVAL = 10;
+
+    private final FlatGrid grid;
+    private final BandRunner runner;
+    private final Method method;
+    private double tolerance = 1e-9;
+    private int maxIterations = 1_000_000;
+    private double omega;
+    private int iterations;
+    private double residual = Double.NaN;
+
+    public SteadyStateSolver(FlatGrid grid, BandRunner runner, Method method){
+        this.grid = grid;
+        this.runner = runner;
+        this.method = method;
+        // the usual estimate for the optimal over-relaxation factor on an N wide plate
+        this.omega = 2 / (1 + Math.sin(Math.PI / Math.max(grid.getWidth(), grid.getHeight())));
+    }
+
+    public void setTolerance(double tolerance){ this.tolerance = tolerance;}
+
+    // SOR sweeps or CG iterations
+    public void setMaxIterations(int maxIterations){ this.maxIterations = maxIterations;}
+
+    public void setOmega(double omega){ this.omega = omega;}
+
+    public int getIterations(){ return iterations;}
+
+    public double getResidual(){ return residual;}
+
+    // solves in place on the grid's current buffer and returns the final residual
+    public double solve() throws InterruptedException {
+        iterations = 0;
+        if (method == Method.SOR) {
+            solveSor();
+        } else {
+            solveMultigrid();
+        }
+        return residual;
+    }
+
+    private void solveSor() throws InterruptedException {
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        Level plate = new Level(width, height, grid.temperatures, null, new double[width * height]);
+        residual = runner.run((band, startRow, endRow) -> plate.computeResidual(startRow, endRow, grid.coefficients));
+        while (residual >= tolerance && iterations < maxIterations) {
+            for (int i = 0; i < CHECK_INTERVAL; i++) {
+                for (int color = 0; color < 4; color++) {
+                    final int c = color;
+                    runner.run((band, startRow, endRow) -> {
+                        plate.smoothColor(c, omega, startRow, endRow);
+                        return 0.0;
+                    });
+                }
+            }
+            iterations += CHECK_INTERVAL;
+            residual = runner.run((band, startRow, endRow) -> plate.computeResidual(startRow, endRow, grid.coefficients));
+        }
+    }
+
+    /*
+     * preconditioned conjugate gradient on n * t - sum of neighbors = 0. r, z, p and q are the usual CG vectors,
+     * q doubles as scratch space for the V-cycle. if the recursively updated residual drifts away from the real
+     * one, CG restarts from the current field.
+     */
+    private void solveMultigrid() throws InterruptedException {
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        final double[] coef = grid.coefficients;
+        final double[] r = new double[width * height];
+        final double[] z = new double[width * height];
+        final double[] p = new double[width * height];
+        final double[] q = new double[width * height];
+        final Level plate = new Level(width, height, grid.temperatures, null, r);
+        // the preconditioner solves n * z - sum of neighbors of z = r
+        final Level fine = new Level(width, height, z, r, q);
+        final Level direction = new Level(width, height, p, null, q);
+        Level level = fine;
+        while (level.width >= 4 && level.height >= 4) {
+            int w = (level.width + 1) / 2;
+            int h = (level.height + 1) / 2;
+            level.coarser = new Level(w, h, new double[w * h], new double[w * h], new double[w * h]);
+            level = level.coarser;
+        }
+
+        residual = runner.run((band, startRow, endRow) -> plate.computeResidual(startRow, endRow, coef));
+        while (residual >= tolerance && iterations < maxIterations) {
+            precondition(fine);
+            double rz = runner.runAndSum((band, startRow, endRow) -> {
+                System.arraycopy(z, startRow * width, p, startRow * width, (endRow - startRow) * width);
+                return dot(r, z, startRow * width, endRow * width);
+            });
+            while (iterations < maxIterations) {
+                double pq = runner.runAndSum((band, startRow, endRow) -> direction.applyOperator(startRow, endRow));
+                final double alpha = rz / pq;
+                residual = runner.run((band, startRow, endRow) -> {
+                    double max = 0.0;
+                    for (int y = startRow; y < endRow; y++) {
+                        for (int x = 0; x < width; x++) {
+                            int i = y * width + x;
+                            plate.u[i] += alpha * p[i];
+                            r[i] -= alpha * q[i];
+                            max = Math.max(max, Math.abs(coef[i] * r[i] / plate.neighborCount(x, y)));
+                        }
+                    }
+                    return max;
+                });
+                iterations++;
+                if (residual < tolerance) {
+                    break;
+                }
+                precondition(fine);
+                double rzNext = runner.runAndSum((band, startRow, endRow) -> dot(r, z, startRow * width, endRow * width));
+                final double beta = rzNext / rz;
+                rz = rzNext;
+                runner.run((band, startRow, endRow) -> {
+                    for (int i = startRow * width; i < endRow * width; i++) {
+                        p[i] = z[i] + beta * p[i];
+                    }
+                    return 0.0;
+                });
+            }
+            residual = runner.run((band, startRow, endRow) -> plate.computeResidual(startRow, endRow, coef));
+        }
+    }
+
+    private static double dot(double[] a, double[] b, int from, int to){
+        double sum = 0.0;
+        for (int i = from; i < to; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /*
+     * z = one V-cycle applied to r with a zero first guess. the colors are smoothed forwards before the coarse
+     * correction and backwards after it, together with restriction being the transpose of prolongation that keeps the
+     * preconditioner symmetric, which CG needs.
+     */
+    private void precondition(Level fine) throws InterruptedException {
+        runner.run((band, startRow, endRow) -> {
+            Arrays.fill(fine.u, startRow * fine.width, endRow * fine.width, 0.0);
+            return 0.0;
+        });
+        for (int i = 0; i < SMOOTHING_SWEEPS; i++) {
+            for (int color = 0; color < 4; color++) {
+                smoothFine(fine, color);
+            }
+        }
+        Level coarse = fine.coarser;
+        if (coarse != null) {
+            runner.run((band, startRow, endRow) -> fine.computeResidual(startRow, endRow, null));
+            int bands = runner.getBands();
+            runner.run((band, startRow, endRow) -> {
+                coarse.restrictFrom(fine, band * coarse.height / bands, (band + 1) * coarse.height / bands);
+                return 0.0;
+            });
+            coarseCycle(coarse);
+            runner.run((band, startRow, endRow) -> {
+                fine.prolongFrom(coarse, startRow, endRow);
+                return 0.0;
+            });
+        }
+        for (int i = 0; i < SMOOTHING_SWEEPS; i++) {
+            for (int color = 3; color >= 0; color--) {
+                smoothFine(fine, color);
+            }
+        }
+    }
+
+    private void smoothFine(Level fine, int color) throws InterruptedException {
+        runner.run((band, startRow, endRow) -> {
+            fine.smoothColor(color, 1.0, startRow, endRow);
+            return 0.0;
+        });
+    }
+
+    // the coarse levels of the V-cycle, on the calling thread
+    private static void coarseCycle(Level level){
+        Arrays.fill(level.u, 0.0);
+        int sweeps = level.coarser == null ? COARSEST_SWEEPS : SMOOTHING_SWEEPS;
+        for (int i = 0; i < sweeps; i++) {
+            for (int color = 0; color < 4; color++) {
+                level.smoothColor(color, 1.0, 0, level.height);
+            }
+        }
+        if (level.coarser != null) {
+            level.computeResidual(0, level.height, null);
+            level.coarser.restrictFrom(level, 0, level.coarser.height);
+            coarseCycle(level.coarser);
+            level.prolongFrom(level.coarser, 0, level.height);
+        }
+        for (int i = 0; i < sweeps; i++) {
+            for (int color = 3; color >= 0; color--) {
+                level.smoothColor(color, 1.0, 0, level.height);
+            }
+        }
+    }
+
+    /*
+     * one level of the hierarchy, n * u - sum of neighbors of u = f with u fixed at the two source cells (the corners).
+     * a null f means zero. on the plate itself u is the temperature field, on the coarser levels it is a correction
+     * and stays zero at the source cells.
+     */
+    static final class Level {
+        final int width;
+        final int height;
+        final double[] u;
+        final double[] f;
+        final double[] r;
+        Level coarser;
+
+        Level(int width, int height, double[] u, double[] f, double[] r){
+            this.width = width;
+            this.height = height;
+            this.u = u;
+            this.f = f;
+            this.r = r;
+        }
+
+        boolean isSource(int x, int y){
+            return (x == 0 && y == 0) || (x == width - 1 && y == height - 1);
+        }
+
+        int neighborCount(int x, int y){
+            int columns = 1 + (x > 0 ? 1 : 0) + (x < width - 1 ? 1 : 0);
+            int rows = 1 + (y > 0 ? 1 : 0) + (y < height - 1 ? 1 : 0);
+            return columns * rows - 1;
+        }
+
+        double neighborSum(int x, int y){
+            int w = width;
+            int i = y * w + x;
+            if (x > 0 && x < w - 1 && y > 0 && y < height - 1) {
+                return u[i - w - 1] + u[i - w] + u[i - w + 1] + u[i - 1] + u[i + 1] + u[i + w - 1] + u[i + w] + u[i + w + 1];
+            }
+            double sum = 0.0;
+            for (int nY = Math.max(0, y - 1); nY <= Math.min(height - 1, y + 1); nY++) {
+                for (int nX = Math.max(0, x - 1); nX <= Math.min(w - 1, x + 1); nX++) {
+                    if (nX != x || nY != y) sum += u[nY * w + nX];
+                }
+            }
+            return sum;
+        }
+
+        // gauss-seidel (w = 1) or SOR on the cells of one color in rows [startRow, endRow)
+        void smoothColor(int color, double w, int startRow, int endRow){
+            int firstRow = startRow + (((color >> 1) - startRow) & 1);
+            for (int y = firstRow; y < endRow; y += 2) {
+                for (int x = color & 1; x < width; x += 2) {
+                    if (isSource(x, y)) continue;
+                    int i = y * width + x;
+                    double target = ((f == null ? 0.0 : f[i]) + neighborSum(x, y)) / neighborCount(x, y);
+                    u[i] += w * (target - u[i]);
+                }
+            }
+        }
+
+        // r = f - (n * u - sum of neighbors) for rows [startRow, endRow), returns max |coef * r / n| when coef is given
+        double computeResidual(int startRow, int endRow, double[] coef){
+            double max = 0.0;
+            for (int y = startRow; y < endRow; y++) {
+                for (int x = 0; x < width; x++) {
+                    int i = y * width + x;
+                    if (isSource(x, y)) {
+                        r[i] = 0.0;
+                        continue;
+                    }
+                    int n = neighborCount(x, y);
+                    r[i] = (f == null ? 0.0 : f[i]) - (n * u[i] - neighborSum(x, y));
+                    if (coef != null) {
+                        max = Math.max(max, Math.abs(coef[i] * r[i] / n));
+                    }
+                }
+            }
+            return max;
+        }
+
+        // r = n * u - sum of neighbors of u (zero at the sources) for rows [startRow, endRow), returns their part of u . r
+        double applyOperator(int startRow, int endRow){
+            double sum = 0.0;
+            for (int y = startRow; y < endRow; y++) {
+                for (int x = 0; x < width; x++) {
+                    int i = y * width + x;
+                    r[i] = isSource(x, y) ? 0.0 : neighborCount(x, y) * u[i] - neighborSum(x, y);
+                    sum += u[i] * r[i];
+                }
+            }
+            return sum;
+        }
+
+        // share of fine column x that bilinear prolongation takes from coarse column cx, coarse being `cells` wide
+        static double weight(int x, int cx, int cells){
+            int own = x / 2;
+            int other = Math.max(0, Math.min(cells - 1, (x & 1) == 0 ? own - 1 : own + 1));
+            return (own == cx ? 0.75 : 0.0) + (other == cx ? 0.25 : 0.0);
+        }
+
+        // f = transpose of prolongation applied to the fine residual, for coarse rows [startRow, endRow)
+        void restrictFrom(Level fine, int startRow, int endRow){
+            for (int y = startRow; y < endRow; y++) {
+                for (int x = 0; x < width; x++) {
+                    int i = y * width + x;
+                    if (isSource(x, y)) {
+                        f[i] = 0.0;
+                        continue;
+                    }
+                    double sum = 0.0;
+                    for (int fy = Math.max(0, 2 * y - 1); fy <= Math.min(fine.height - 1, 2 * y + 2); fy++) {
+                        double wy = weight(fy, y, height);
+                        if (wy == 0.0) continue;
+                        for (int fx = Math.max(0, 2 * x - 1); fx <= Math.min(fine.width - 1, 2 * x + 2); fx++) {
+                            sum += wy * weight(fx, x, width) * fine.r[fy * fine.width + fx];
+                        }
+                    }
+                    f[i] = sum;
+                }
+            }
+        }
+
+        // adds the bilinear interpolation of the coarse correction to rows [startRow, endRow), sources stay fixed
+        void prolongFrom(Level coarse, int startRow, int endRow){
+            double[] c = coarse.u;
+            int cw = coarse.width;
+            for (int y = startRow; y < endRow; y++) {
+                int cy = y / 2;
+                int cy2 = Math.max(0, Math.min(coarse.height - 1, (y & 1) == 0 ? cy - 1 : cy + 1));
+                for (int x = 0; x < width; x++) {
+                    if (isSource(x, y)) continue;
+                    int cx = x / 2;
+                    int cx2 = Math.max(0, Math.min(cw - 1, (x & 1) == 0 ? cx - 1 : cx + 1));
+                    u[y * width + x] += (9 * c[cy * cw + cx] + 3 * c[cy * cw + cx2] + 3 * c[cy2 * cw + cx] + c[cy2 * cw + cx2]) / 16;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package org.wstone.concurrent;
+
+/*
+ * advances rows [startRow, endRow) of a width x height plate, reading temperatures from src and writing them to dst.
+ * src and dst are row-major, cell (x, y) at y * width + x. a sweep may fuse several time steps, in which case the
+ * caller has to count getStepsPerSweep() iterations for every call.
+ * returns the residual of the rows: the largest absolute change of any cell in the last step of the sweep.
+ */
+public interface StencilKernel {
+
+    double sweep(double[] src, double[] dst, double[] coef, int width, int height, int startRow, int endRow);
+
+    default int getStepsPerSweep(){ return 1;}
+
+    // true if the kernel gives wrong results when src and dst are the same array
+    default boolean requiresDoubleBuffering(){ return getStepsPerSweep() > 1;}
+
+    // called once per step after every band has swept, for kernels that carry state from one step to the next
+    default void stepDone(){}
+
+    /*
+     * the VectorKernel when the build included it (the `vector` maven profile) and the jvm was started with
+     * --add-modules jdk.incubator.vector, otherwise the ScalarKernel
+     */
+    static StencilKernel fastest(){
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (StencilKernel) Class.forName("org.wstone.concurrent.VectorKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // built without the vector profile
+            }
+        }
+        return new ScalarKernel();
+    }
+}
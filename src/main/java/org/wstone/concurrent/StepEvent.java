@@ -0,0 +1,31 @@
+package org.wstone.concurrent;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/*
+ * one time step of the whole plate, for Flight Recorder. the event object is created, begun and committed inside the
+ * stepping loop and never escapes it, so the jit drops the allocation, and without a recording shouldCommit() is
+ * false and nothing else happens. record with -XX:StartFlightRecording and look for org.wstone.Step.
+ */
+@Name("org.wstone.Step")
+@Label("Simulation Step")
+@Category("Heat Propagation")
+@Description("One time step of every band")
+public class StepEvent extends jdk.jfr.Event {
+    @Label("Iteration")
+    public int iteration;
+
+    @Label("Residual")
+    public double residual;
+
+    @Label("Cells")
+    public long cells;
+
+    @Label("Slowest Band")
+    @Timespan(Timespan.NANOSECONDS)
+    public long slowestNanos;
+}
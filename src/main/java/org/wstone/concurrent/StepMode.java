@@ -0,0 +1,15 @@
+package org.wstone.concurrent;
+
+/*
+ * IN_PLACE is the original behavior: a band writes straight into the array the other bands are reading, so the result
+ * depends on thread timing.
+ * DOUBLE_BUFFERED (Jacobi) reads every neighbor from the current buffer and writes into a second one, the buffers are
+ * swapped once all bands are done. no cell is ever read and written in the same pass, so nothing needs a lock and the
+ * output is the same for any number of threads.
+ * a Jacobi step is only stable while every coefficient stays below about 4/3; the mixes in Simulation.main reach 1.6,
+ * which the in-place update tolerates but DOUBLE_BUFFERED does not.
+ */
+public enum StepMode {
+    IN_PLACE,
+    DOUBLE_BUFFERED
+}
@@ -0,0 +1,49 @@
+package org.wstone.concurrent;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// submits a fresh task per band every iteration
+class TaskBandRunner extends BandRunner {
+    private final ExecutorService executorService;
+
+    TaskBandRunner(int height, int bands){
+        super(height, bands);
+        this.executorService = Executors.newFixedThreadPool(bands);
+    }
+
+    @Override
+    void dispatch(BandTask task) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(bands);
+        for (int band = 0; band < bands; band++) {
+            final int b = band;
+            executorService.submit(() -> {
+                try{
+                    runBand(task, b);
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdown();
+        try {
+            if (!executorService.awaitTermination(5, TimeUnit.SECONDS)) {
+                executorService.shutdownNow();
+                //wait again to ensure shutdown
+                if (!executorService.awaitTermination(2, TimeUnit.SECONDS)) {
+                    System.err.println("ExecutorService did not terminate");
+                }
+            }
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package org.wstone.concurrent;
+
+/*
+ * cache blocked kernel that fuses several time steps per tile (overlapped / trapezoid temporal blocking).
+ *
+ * the band is cut into tileRows x tileCols tiles. for each tile we copy the tile plus a halo of `depth` cells into
+ * a small scratch window, run `depth` Jacobi steps inside it, shrinking the valid area by one cell per step on every
+ * side that is not the edge of the plate, and write the tile back to dst. every value is loaded from memory once per
+ * `depth` steps instead of once per step, at the price of recomputing the halo cells.
+ *
+ * the cell update is ScalarKernel.row, so the result is bit-for-bit the same as `depth` plain sweeps. it needs
+ * DOUBLE_BUFFERED stepping since every tile reads the untouched src for its halo.
+ */
+public class TiledKernel implements StencilKernel {
+    private final int tileRows;
+    private final int tileCols;
+    private final int depth;
+    // every band thread gets its own scratch windows: the two temperature buffers and the coefficients
+    private final ThreadLocal<double[][]> scratch;
+
+    public TiledKernel(int tileRows, int tileCols, int depth){
+        if (tileRows < 1 || tileCols < 1 || depth < 1) {
+            throw new IllegalArgumentException("tile size and depth have to be positive");
+        }
+        this.tileRows = tileRows;
+        this.tileCols = tileCols;
+        this.depth = depth;
+        int window = (tileRows + 2 * depth) * (tileCols + 2 * depth);
+        this.scratch = ThreadLocal.withInitial(() -> new double[][]{new double[window], new double[window], new double[window]});
+    }
+
+    @Override
+    public int getStepsPerSweep(){ return depth;}
+
+    @Override
+    public double sweep(double[] src, double[] dst, double[] coef, int width, int height, int startRow, int endRow){
+        double[][] buffers = scratch.get();
+        double residual = 0.0;
+        for (int ty = startRow; ty < endRow; ty += tileRows) {
+            int ty1 = Math.min(endRow, ty + tileRows);
+            for (int tx = 0; tx < width; tx += tileCols) {
+                int tx1 = Math.min(width, tx + tileCols);
+                residual = Math.max(residual, tile(src, dst, coef, width, height, ty, ty1, tx, tx1, buffers));
+            }
+        }
+        return residual;
+    }
+
+    // returns the residual of the last fused step, at that point the valid area is exactly the tile
+    private double tile(double[] src, double[] dst, double[] coef, int width, int height,
+                      int ty0, int ty1, int tx0, int tx1, double[][] buffers){
+        // the window is the tile plus the halo, clipped to the plate
+        int ey0 = Math.max(0, ty0 - depth);
+        int ey1 = Math.min(height, ty1 + depth);
+        int ex0 = Math.max(0, tx0 - depth);
+        int ex1 = Math.min(width, tx1 + depth);
+        int stride = ex1 - ex0;
+
+        double[] a = buffers[0];
+        double[] b = buffers[1];
+        double[] c = buffers[2];
+        for (int y = ey0; y < ey1; y++) {
+            System.arraycopy(src, y * width + ex0, a, (y - ey0) * stride, stride);
+            System.arraycopy(coef, y * width + ex0, c, (y - ey0) * stride, stride);
+        }
+
+        double residual = 0.0;
+        for (int s = 1; s <= depth; s++) {
+            // after s steps only the cells at least s away from a cut edge of the window are still correct
+            int vy0 = ey0 == 0 ? 0 : ey0 + s;
+            int vy1 = ey1 == height ? height : ey1 - s;
+            int vx0 = ex0 == 0 ? 0 : ex0 + s;
+            int vx1 = ex1 == width ? width : ex1 - s;
+            for (int y = vy0; y < vy1; y++) {
+                double r = ScalarKernel.row(a, b, c, (y - ey0) * stride - ex0, stride, y, vx0, vx1, width, height);
+                if (s == depth) residual = Math.max(residual, r);
+            }
+            double[] tmp = a;
+            a = b;
+            b = tmp;
+        }
+
+        for (int y = ty0; y < ty1; y++) {
+            System.arraycopy(a, (y - ey0) * stride + (tx0 - ex0), dst, y * width + tx0, tx1 - tx0);
+        }
+        return residual;
+    }
+}
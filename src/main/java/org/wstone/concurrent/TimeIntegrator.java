@@ -0,0 +1,213 @@
+package org.wstone.concurrent;
+
+/*
+ * steps the plate by a time step dt instead of the fixed step of computeHeatTransfer. one of those moves a cell by
+ * coef * (mean of its neighbors - t), which is an explicit euler step of dt = 1 of dT/dt = coef * L(T). here
+ * simulated time advances by dt per step and a run needs time / dt of them.
+ *
+ * EXPLICIT moves every cell by dt * coef * L(T) with L taken from the plate before the step (Jacobi). as long as
+ * dt * coef <= 1 a cell's new value is a weighted average of its old one and its neighbors, so no step can overshoot
+ * and the field stays bounded: dt <= 1 / max coef, computed from the actual coefficients, is getStableTimeStep().
+ * that is below the 4/3 of StepMode, which only holds for a uniform plate away from the edges. with dt = 1 it is the
+ * same update as a DOUBLE_BUFFERED FlatGrid, the default mixes need dt of about 0.6.
+ *
+ * IMPLICIT is delta-form ADI (approximate factorization). the 8 neighbor stencil is
+ * L = 3/4 Dx + 3/4 Dy + 1/2 Dx Dy, with Dx T = (T[x - 1] - 2 T + T[x + 1]) / 2 along a row and Dy the same along a
+ * column. a step solves
+ *
+ *   (I - 3/4 dt K Dx) (I - 3/4 dt K Dy) delta = dt K L(T),   T += delta
+ *
+ * as one tridiagonal system per row and then one per column (Thomas algorithm). the rows are split over the bands,
+ * the columns over the bands by column range, and each band eliminates its columns together along y so the inner
+ * loop runs along a row. the right hand side is the full stencil, so a converged plate (L(T) = 0) is exactly the
+ * same equilibrium as with the explicit steps. for constant coefficients no mode grows for any dt, so dt is limited
+ * by how closely the run has to follow the transient (the scheme is first order in time) and not by stability. the
+ * factorization damps the fine diagonal modes less the larger dt gets, past a few hundred it overshoots next to the
+ * sources for a while and the equilibrium takes longer again.
+ *
+ * AUTO takes EXPLICIT while dt is within the stable step and IMPLICIT above it.
+ *
+ * the residual a step returns is the largest change divided by dt, the rate of change, which with dt = 1 is what
+ * Alloy.setTolerance is compared against.
+ */
+public class TimeIntegrator {
+
+    public enum Scheme {
+        EXPLICIT,
+        IMPLICIT,
+        AUTO
+    }
+
+    private final FlatGrid grid;
+    private final BandRunner runner;
+    private final int width;
+    private final int height;
+    private final double dt;
+    private final Scheme scheme;
+    private final double stableTimeStep;
+    // dt * coef * L(T), then the correction after the line solves
+    private final double[] delta;
+    // the modified upper diagonal of the Thomas algorithm, every band only touches its own rows or columns
+    private final double[] upper;
+    // made once, a lambda per step would allocate on every iteration
+    private final BandTask change = (band, startRow, endRow) -> change(startRow, endRow);
+    private final BandTask solveRows = (band, startRow, endRow) -> solveRows(startRow, endRow);
+    private final BandTask solveColumns;
+    private final BandTask apply = (band, startRow, endRow) -> apply(startRow, endRow);
+
+    public TimeIntegrator(FlatGrid grid, BandRunner runner, double dt, Scheme scheme){
+        if (!(dt > 0)) {
+            throw new IllegalArgumentException("the time step has to be positive");
+        }
+        this.grid = grid;
+        this.runner = runner;
+        this.width = grid.getWidth();
+        this.height = grid.getHeight();
+        this.dt = dt;
+        double maxCoefficient = 0.0;
+        for (double k : grid.coefficients) {
+            maxCoefficient = Math.max(maxCoefficient, k);
+        }
+        this.stableTimeStep = 1 / maxCoefficient;
+        if (scheme == Scheme.AUTO) {
+            scheme = dt <= stableTimeStep ? Scheme.EXPLICIT : Scheme.IMPLICIT;
+        } else if (scheme == Scheme.EXPLICIT && dt > stableTimeStep) {
+            throw new IllegalArgumentException(String.format("explicit steps are only stable up to dt = %.4g on this plate, not %.4g", stableTimeStep, dt));
+        }
+        this.scheme = scheme;
+        this.delta = new double[width * height];
+        this.upper = scheme == Scheme.IMPLICIT ? new double[width * height] : null;
+        int bands = runner.getBands();
+        this.solveColumns = (band, startRow, endRow) -> solveColumns(band * width / bands, (band + 1) * width / bands);
+    }
+
+    // the scheme AUTO turned into
+    public Scheme getScheme(){ return scheme;}
+
+    public double getTimeStep(){ return dt;}
+
+    // the largest dt explicit steps take on this plate
+    public double getStableTimeStep(){ return stableTimeStep;}
+
+    // advances the plate by dt and returns the largest rate of change
+    public double step() throws InterruptedException {
+        runner.run(change);
+        if (scheme == Scheme.IMPLICIT) {
+            runner.run(solveRows);
+            runner.run(solveColumns);
+        }
+        return runner.run(apply) / dt;
+    }
+
+    private boolean isSource(int x, int y){
+        return (x == 0 && y == 0) || (x == width - 1 && y == height - 1);
+    }
+
+    // the share of the cell's neighbors on one side of it along a, 3/8 away from the edges
+    private static double side(int a, int b, int lengthA, int lengthB){
+        int alongA = 1 + (a > 0 ? 1 : 0) + (a < lengthA - 1 ? 1 : 0);
+        int alongB = 1 + (b > 0 ? 1 : 0) + (b < lengthB - 1 ? 1 : 0);
+        return (double) alongB / (alongA * alongB - 1);
+    }
+
+    // ScalarKernel.row without the write, times dt
+    private double change(int startRow, int endRow){
+        double[] t = grid.temperatures;
+        double[] coef = grid.coefficients;
+        for (int y = startRow; y < endRow; y++) {
+            boolean interiorRow = y > 0 && y < height - 1;
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                if (isSource(x, y)) {
+                    delta[i] = 0.0;
+                    continue;
+                }
+                double cur = t[i];
+                double k = coef[i];
+                double change;
+                if (interiorRow && x > 0 && x < width - 1) {
+                    double totalChange = 0.0;
+                    totalChange += (t[i - width - 1] - cur) * k;
+                    totalChange += (t[i - width] - cur) * k;
+                    totalChange += (t[i - width + 1] - cur) * k;
+                    totalChange += (t[i - 1] - cur) * k;
+                    totalChange += (t[i + 1] - cur) * k;
+                    totalChange += (t[i + width - 1] - cur) * k;
+                    totalChange += (t[i + width] - cur) * k;
+                    totalChange += (t[i + width + 1] - cur) * k;
+                    change = totalChange / 8;
+                } else {
+                    change = ScalarKernel.edgeChange(t, i, width, x, y, cur, k, width, height);
+                }
+                delta[i] = dt * change;
+            }
+        }
+        return 0.0;
+    }
+
+    /*
+     * (I - 3/4 dt k Dx) on a row is -c below the diagonal, 1 + 2c on it and -c above it, c = 3/8 dt k: the weight of
+     * the 3 neighbors on either side. on the edges a side has 3 or 2 of the cell's 5 or 3 neighbors and c is that
+     * share instead, the same weight the stencil gives them. with the interior 3/8 there the edge cells are damped
+     * less than they change and large dt blows up from the edges in. a source cell's row is the identity, its delta
+     * stays 0
+     */
+    private double solveRows(int startRow, int endRow){
+        double[] coef = grid.coefficients;
+        for (int y = startRow; y < endRow; y++) {
+            int row = y * width;
+            double previousUpper = 0.0;
+            double previousDelta = 0.0;
+            for (int x = 0; x < width; x++) {
+                int i = row + x;
+                double c = isSource(x, y) ? 0.0 : dt * coef[i] * side(x, y, width, height);
+                double below = x > 0 ? -c : 0.0;
+                double above = x < width - 1 ? -c : 0.0;
+                double m = 1 - below - above - below * previousUpper;
+                upper[i] = above / m;
+                delta[i] = previousDelta = (delta[i] - below * previousDelta) / m;
+                previousUpper = upper[i];
+            }
+            for (int x = width - 2; x >= 0; x--) {
+                delta[row + x] -= upper[row + x] * delta[row + x + 1];
+            }
+        }
+        return 0.0;
+    }
+
+    // the same along every column in [x0, x1), all of them eliminated together one plate row at a time
+    private double solveColumns(int x0, int x1){
+        double[] coef = grid.coefficients;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = x0; x < x1; x++) {
+                int i = row + x;
+                double c = isSource(x, y) ? 0.0 : dt * coef[i] * side(y, x, height, width);
+                double below = y > 0 ? -c : 0.0;
+                double above = y < height - 1 ? -c : 0.0;
+                double previousUpper = y > 0 ? upper[i - width] : 0.0;
+                double previousDelta = y > 0 ? delta[i - width] : 0.0;
+                double m = 1 - below - above - below * previousUpper;
+                upper[i] = above / m;
+                delta[i] = (delta[i] - below * previousDelta) / m;
+            }
+        }
+        for (int y = height - 2; y >= 0; y--) {
+            int row = y * width;
+            for (int x = x0; x < x1; x++) {
+                delta[row + x] -= upper[row + x] * delta[row + x + width];
+            }
+        }
+        return 0.0;
+    }
+
+    private double apply(int startRow, int endRow){
+        double[] t = grid.temperatures;
+        double residual = 0.0;
+        for (int i = startRow * width; i < endRow * width; i++) {
+            t[i] += delta[i];
+            residual = Math.max(residual, Math.abs(delta[i]));
+        }
+        return residual;
+    }
+}
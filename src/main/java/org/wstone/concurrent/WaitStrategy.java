@@ -0,0 +1,38 @@
+package org.wstone.concurrent;
+
+import java.util.concurrent.Phaser;
+
+/*
+ * how a thread waits for a Phaser to leave the given phase. blocking is the cheapest on cpu, spinning has the lowest
+ * wakeup latency and spinThenPark sits in between, which is what we want when a band step only takes microseconds.
+ * spinning only pays off when every party has a core to itself, with more bands than cores use blocking.
+ */
+@FunctionalInterface
+public interface WaitStrategy {
+
+    void await(Phaser phaser, int phase) throws InterruptedException;
+
+    static WaitStrategy blocking(){
+        return (phaser, phase) -> phaser.awaitAdvanceInterruptibly(phase);
+    }
+
+    static WaitStrategy spinning(){
+        return (phaser, phase) -> {
+            // a negative phase means the phaser was terminated
+            while (phase >= 0 && phaser.getPhase() == phase) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                Thread.onSpinWait();
+            }
+        };
+    }
+
+    static WaitStrategy spinThenPark(int spins){
+        return (phaser, phase) -> {
+            for (int i = 0; i < spins; i++) {
+                if (phase < 0 || phaser.getPhase() != phase) return;
+                Thread.onSpinWait();
+            }
+            phaser.awaitAdvanceInterruptibly(phase);
+        };
+    }
+}
@@ -0,0 +1,257 @@
+package org.wstone.distributed;
+
+import org.wstone.concurrent.BandRunner;
+import org.wstone.concurrent.BandTask;
+import org.wstone.concurrent.CoefficientField;
+import org.wstone.concurrent.ExecutionMode;
+import org.wstone.concurrent.ScalarKernel;
+import org.wstone.concurrent.WaitStrategy;
+
+/*
+ * the rows [startRow, endRow) of the plate that one server keeps for the whole run. the band is split once more into
+ * slabs, one per thread of the server, stepped by a BandRunner the same way concurrent.Simulation steps its bands.
+ * every slab has its own arrays with one extra row on each side, the halos, which hold the rows next to it as of the
+ * previous step: the neighboring slab's, or for the first and last slab the neighboring bands' that the organizer
+ * sends. a step updates the owned rows in place with the same row() the concurrent version uses, only the halo rows
+ * lag one step behind. at the top and bottom of the plate the halo is never read.
+ *
+ * a step goes interior rows first, top to bottom within every slab, then the band's first row, then its last row.
+ * the interior never reads a band halo, so startStep() can run it while the halos for the step are still on the way
+ * and finishStep() only has two rows left once they arrive. the slabs swap their boundary rows after that. the order
+ * is the same whether or not the step was started early and no slab reads a row another one is writing, so the
+ * results do not depend on timing, only on how many slabs there are. a started step can be rolled back, the rows it
+ * overwrote are saved first.
+ *
+ * a slab's arrays are allocated and filled on the worker thread that steps it. with -XX:+UseNUMA the heap hands a
+ * thread memory from its own node, so on a multi-socket server every slab sits next to the core that works on it.
+ * run the server with that flag, it does nothing on a single node.
+ */
+class Band implements AutoCloseable {
+    private final int width;
+    private final int height;
+    private final int startRow;
+    private final int endRow;
+    // null with a single slab, that one is stepped on the server thread without handing it to a worker
+    private final BandRunner runner;
+    private final Slab[] slabs;
+    private boolean started;
+    private double interiorResidual;
+    // time every thread spent on the band since takeWorkNanos(), over the wall time that is the speedup
+    private long workNanos;
+    // made once, stepping must not allocate
+    private final BandTask interior;
+
+    // temperatures and coefficients hold just the owned rows, row-major
+    Band(int width, int height, int startRow, int endRow, double[] temperatures, double[] coefficients, int threads) throws InterruptedException {
+        this(width, height, startRow, endRow, temperatures, coefficients, null, threads);
+    }
+
+    // the coefficients of the owned rows are drawn here, the same ones the organizer would have sent
+    Band(int width, int height, int startRow, int endRow, double[] temperatures, CoefficientField field, int threads) throws InterruptedException {
+        this(width, height, startRow, endRow, temperatures, null, field, threads);
+    }
+
+    private Band(int width, int height, int startRow, int endRow, double[] temperatures, double[] coefficients,
+                 CoefficientField field, int threads) throws InterruptedException {
+        checkGeometry(width, height, startRow, endRow, temperatures, coefficients, field);
+        this.width = width;
+        this.height = height;
+        this.startRow = startRow;
+        this.endRow = endRow;
+        int rows = endRow - startRow;
+        int slabCount = Math.max(1, Math.min(threads, rows));
+        this.runner = slabCount > 1 ? BandRunner.create(ExecutionMode.PERSISTENT_WORKERS, rows, slabCount, WaitStrategy.spinThenPark(1 << 10)) : null;
+        this.slabs = new Slab[slabCount];
+        this.interior = (slab, from, to) -> slabs[slab].interior();
+        try {
+            runSlabs((slab, from, to) -> {
+                slabs[slab] = new Slab(startRow + from, startRow + to, temperatures, coefficients, field);
+                return 0.0;
+            });
+        } catch (RuntimeException | Error | InterruptedException e) {
+            close();
+            throw e;
+        }
+        workNanos = 0;
+        swapSlabHalos();
+    }
+
+    // an INIT_BAND from the wire is only trusted this far, anything else would fail on the workers instead
+    private static void checkGeometry(int width, int height, int startRow, int endRow, double[] temperatures,
+                                      double[] coefficients, CoefficientField field){
+        if (width <= 0 || height <= 0 || startRow < 0 || endRow > height || startRow >= endRow) {
+            throw new IllegalArgumentException("band rows " + startRow + "-" + endRow + " do not fit a " + height + "x" + width + " plate");
+        }
+        long cells = (long) (endRow - startRow) * width;
+        if (temperatures == null || temperatures.length != cells) {
+            throw new IllegalArgumentException("band of " + cells + " cells with " + (temperatures == null ? "no" : temperatures.length) + " temperatures");
+        }
+        if (coefficients == null ? field == null : coefficients.length != cells) {
+            throw new IllegalArgumentException("band of " + cells + " cells without matching coefficients");
+        }
+    }
+
+    // either may be null at the edge of the plate
+    void setHalos(double[] above, double[] below){
+        if ((above != null && above.length != width) || (below != null && below.length != width)) {
+            throw new IllegalArgumentException("a halo row has to be " + width + " cells");
+        }
+        if (above != null) {
+            System.arraycopy(above, 0, slabs[0].temperatures, 0, width);
+        }
+        if (below != null) {
+            Slab last = slabs[slabs.length - 1];
+            System.arraycopy(below, 0, last.temperatures, (last.endRow - last.startRow + 1) * width, width);
+        }
+    }
+
+    // the interior rows of the next step, the ones that do not need the band halos
+    void startStep() throws InterruptedException {
+        if (started) {
+            return;
+        }
+        interiorResidual = runSlabs(interior);
+        started = true;
+    }
+
+    // the halos must be in place. runs the interior too if startStep() was not called
+    double finishStep() throws InterruptedException {
+        startStep();
+        started = false;
+        long start = System.nanoTime();
+        double residual = Math.max(interiorResidual, slabs[0].rows(startRow, startRow + 1));
+        if (endRow - 1 > startRow) {
+            residual = Math.max(residual, slabs[slabs.length - 1].rows(endRow - 1, endRow));
+        }
+        swapSlabHalos();
+        workNanos += System.nanoTime() - start;
+        return residual;
+    }
+
+    // puts the interior back the way it was before startStep()
+    void cancelStep(){
+        if (started) {
+            for (Slab slab : slabs) {
+                slab.restore();
+            }
+            started = false;
+        }
+    }
+
+    // the thread time since the last call, a step on one core would have taken about this long
+    long takeWorkNanos(){
+        long nanos = workNanos;
+        workNanos = 0;
+        return nanos;
+    }
+
+    // the task for every slab, adds the time the threads spent on it to the work
+    private double runSlabs(BandTask task) throws InterruptedException {
+        if (runner == null) {
+            long start = System.nanoTime();
+            double residual = task.run(0, 0, endRow - startRow);
+            workNanos += System.nanoTime() - start;
+            return residual;
+        }
+        double residual = runner.run(task);
+        for (int b = 0; b < slabs.length; b++) {
+            workNanos += runner.getLastComputeNanos(b);
+        }
+        return residual;
+    }
+
+    // every slab's first and last row go into the halos of the slabs next to it
+    private void swapSlabHalos(){
+        for (int b = 0; b + 1 < slabs.length; b++) {
+            Slab upper = slabs[b];
+            Slab lower = slabs[b + 1];
+            int upperRows = upper.endRow - upper.startRow;
+            System.arraycopy(upper.temperatures, upperRows * width, lower.temperatures, 0, width);
+            System.arraycopy(lower.temperatures, width, upper.temperatures, (upperRows + 1) * width, width);
+        }
+    }
+
+    double[] firstRow(){
+        return slabs[0].row(startRow);
+    }
+
+    double[] lastRow(){
+        return slabs[slabs.length - 1].row(endRow - 1);
+    }
+
+    // the owned rows without the halos, cancel a started step first
+    double[] copyRows(){
+        double[] rows = new double[(endRow - startRow) * width];
+        for (Slab slab : slabs) {
+            System.arraycopy(slab.temperatures, width, rows, (slab.startRow - startRow) * width, (slab.endRow - slab.startRow) * width);
+        }
+        return rows;
+    }
+
+    @Override
+    public void close(){
+        if (runner != null) {
+            runner.close();
+        }
+    }
+
+    // rows [startRow, endRow) of the plate with a halo on each side, like the band used to be as a whole
+    private final class Slab {
+        final int startRow;
+        final int endRow;
+        // (rows + 2) * width, row 0 is the halo above and row rows + 1 the halo below
+        final double[] temperatures;
+        final double[] coefficients;
+        // the rows startStep() steps, without the band's first and last row
+        final int interiorFrom;
+        final int interiorTo;
+        // those rows as they were before startStep(), for cancelStep()
+        final double[] saved;
+
+        // band holds the temperatures and coefficients of the whole band, field draws the coefficients instead
+        Slab(int startRow, int endRow, double[] band, double[] coefficients, CoefficientField field){
+            this.startRow = startRow;
+            this.endRow = endRow;
+            int cells = (endRow - startRow) * width;
+            int offset = (startRow - Band.this.startRow) * width;
+            this.temperatures = new double[cells + 2 * width];
+            this.coefficients = new double[cells + 2 * width];
+            System.arraycopy(band, offset, temperatures, width, cells);
+            if (field == null) {
+                System.arraycopy(coefficients, offset, this.coefficients, width, cells);
+            } else {
+                // a row at a time, fill() would hand a large slab to the common pool and its threads would touch it first
+                for (int y = startRow; y < endRow; y++) {
+                    field.fill(this.coefficients, (y - startRow + 1) * width, width, y, y + 1);
+                }
+            }
+            this.interiorFrom = Math.max(startRow, Band.this.startRow + 1);
+            this.interiorTo = Math.min(endRow, Band.this.endRow - 1);
+            this.saved = new double[Math.max(0, interiorTo - interiorFrom) * width];
+        }
+
+        double interior(){
+            System.arraycopy(temperatures, (interiorFrom - startRow + 1) * width, saved, 0, saved.length);
+            return rows(interiorFrom, interiorTo);
+        }
+
+        void restore(){
+            System.arraycopy(saved, 0, temperatures, (interiorFrom - startRow + 1) * width, saved.length);
+        }
+
+        double rows(int from, int to){
+            double residual = 0.0;
+            for (int y = from; y < to; y++) {
+                int rowStart = (y - startRow + 1) * width;
+                residual = Math.max(residual, ScalarKernel.row(temperatures, temperatures, coefficients, rowStart, width, y, 0, width, width, height));
+            }
+            return residual;
+        }
+
+        double[] row(int y){
+            double[] row = new double[width];
+            System.arraycopy(temperatures, (y - startRow + 1) * width, row, 0, width);
+            return row;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package org.wstone.distributed;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * the servers an organizer talks to, in band order, each with a weight for its share of the rows. a file has one
+ * server per line, "host:port" or "host:port weight", blank lines and # comments are skipped. on the command line the
+ * same entries go comma separated with "=" before the weight, e.g. "pi:6001=2,pi:6002". the weight only decides the
+ * first split, after that the organizer goes by measured speed.
+ */
+public final class ClusterConfig {
+    private final List<InetSocketAddress> endpoints;
+    private final double[] weights;
+
+    private ClusterConfig(List<InetSocketAddress> endpoints, double[] weights){
+        if (endpoints.isEmpty()) {
+            throw new IllegalArgumentException("a cluster needs at least one server");
+        }
+        this.endpoints = List.copyOf(endpoints);
+        this.weights = weights;
+    }
+
+    public static ClusterConfig load(Path file) throws IOException {
+        List<String> entries = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            int comment = line.indexOf('#');
+            String entry = (comment >= 0 ? line.substring(0, comment) : line).trim();
+            if (!entry.isEmpty()) {
+                entries.add(entry);
+            }
+        }
+        return of(entries);
+    }
+
+    public static ClusterConfig parse(String commaSeparated){
+        return of(Arrays.asList(commaSeparated.split(",")));
+    }
+
+    public static ClusterConfig of(List<String> entries){
+        List<InetSocketAddress> endpoints = new ArrayList<>();
+        double[] weights = new double[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            String[] parts = entries.get(i).trim().split("[\\s=]+");
+            if (parts.length > 2) {
+                throw new IllegalArgumentException("expected host:port [weight], got \"" + entries.get(i) + "\"");
+            }
+            int colon = parts[0].lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("missing port in \"" + entries.get(i) + "\"");
+            }
+            endpoints.add(InetSocketAddress.createUnresolved(parts[0].substring(0, colon), Integer.parseInt(parts[0].substring(colon + 1))));
+            weights[i] = parts.length == 2 ? Double.parseDouble(parts[1]) : 1.0;
+            if (!(weights[i] > 0)) {
+                throw new IllegalArgumentException("weight must be positive in \"" + entries.get(i) + "\"");
+            }
+        }
+        return new ClusterConfig(endpoints, weights);
+    }
+
+    public static ClusterConfig of(String... entries){
+        return of(Arrays.asList(entries));
+    }
+
+    // the given servers of this config, in that order
+    public ClusterConfig select(List<Integer> servers){
+        List<InetSocketAddress> picked = new ArrayList<>();
+        double[] pickedWeights = new double[servers.size()];
+        for (int i = 0; i < servers.size(); i++) {
+            picked.add(endpoints.get(servers.get(i)));
+            pickedWeights[i] = weights[servers.get(i)];
+        }
+        return new ClusterConfig(picked, pickedWeights);
+    }
+
+    public int size(){ return endpoints.size();}
+
+    // unresolved, so a config can be built before the hosts are reachable
+    public InetSocketAddress getEndpoint(int server){ return endpoints.get(server);}
+
+    public double getWeight(int server){ return weights[server];}
+
+    // host:port for messages
+    public String getName(int server){
+        InetSocketAddress e = endpoints.get(server);
+        return e.getHostString() + ":" + e.getPort();
+    }
+
+    /*
+     * band boundaries for the given shares: band b gets rows [result[b], result[b + 1]), roughly height * share / total
+     * and never fewer than one row, so there can be no more servers than rows.
+     */
+    static int[] partition(int height, double[] shares){
+        int bands = shares.length;
+        if (bands > height) {
+            throw new IllegalArgumentException(bands + " servers for " + height + " rows");
+        }
+        double total = 0.0;
+        for (double share : shares) {
+            total += share;
+        }
+        int[] startRows = new int[bands + 1];
+        double cumulative = 0.0;
+        for (int b = 1; b < bands; b++) {
+            cumulative += shares[b - 1];
+            int row = (int) Math.round(height * cumulative / total);
+            // at least one row for this band and for each one after it
+            startRows[b] = Math.max(startRows[b - 1] + 1, Math.min(row, height - (bands - b)));
+        }
+        startRows[bands] = height;
+        return startRows;
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < endpoints.size(); i++) {
+            if (i > 0) sb.append(',');
+            sb.append(getName(i)).append('=').append(weights[i]);
+        }
+        return sb.toString();
+    }
+}
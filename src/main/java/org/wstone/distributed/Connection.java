@@ -0,0 +1,145 @@
+package org.wstone.distributed;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * the organizer's end of a long-lived connection to one server. send() returns once the frame is in the socket
+ * buffer, which for a halo is right away, so the organizer can send to every server before it waits for the first
+ * reply. the channel is non-blocking underneath so that receive() can give up: a server sends a HEARTBEAT whenever it
+ * has been quiet for a while, if nothing at all comes for the timeout the server is taken for dead. connecting gets
+ * the same timeout, a host that is down often never refuses, it just does not answer.
+ * not thread safe, each connection belongs to one thread at a time.
+ */
+class Connection implements Closeable {
+    private final SocketChannel channel;
+    private final Selector selector;
+    private final SelectionKey key;
+    private final FrameReader reader;
+    private final FrameWriter writer = new FrameWriter(1 << 16);
+    private final long timeoutNanos;
+    private long bytesSent;
+    private long bytesReceived;
+
+    Connection(InetSocketAddress address, long timeout, TimeUnit unit) throws IOException {
+        this(address, timeout, unit, PacketCodec.maxFrameBytes(PacketCodec.DEFAULT_MAX_BAND_CELLS));
+    }
+
+    // maxFrameBytes is the largest frame the server may send, a snapshot of the largest band it can hold
+    Connection(InetSocketAddress address, long timeout, TimeUnit unit, int maxFrameBytes) throws IOException {
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.reader = new FrameReader(1 << 16, maxFrameBytes);
+        channel = SocketChannel.open();
+        try {
+            // one small request and one small reply per step, nagle would hold each of them back for the ack
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            key = channel.register(selector, 0);
+            // cluster configs hold unresolved addresses, the lookup happens when we connect
+            connect(address.isUnresolved() ? new InetSocketAddress(address.getHostString(), address.getPort()) : address);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // a blocking connect would wait for the os to give up, which takes minutes
+    private void connect(InetSocketAddress address) throws IOException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        if (channel.connect(address)) {
+            return;
+        }
+        while (!channel.finishConnect()) {
+            if (deadline - System.nanoTime() <= 0) {
+                throw new SocketTimeoutException("no connection to " + address + " within " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
+            }
+            await(SelectionKey.OP_CONNECT, deadline);
+        }
+    }
+
+    void send(Packet p) throws IOException {
+        writer.add(p);
+        bytesSent += PacketCodec.encodedSize(p);
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (!writer.flush(channel)) {
+            // only frames bigger than the socket buffer get here, the server is reading them while we wait
+            await(SelectionKey.OP_WRITE, deadline);
+        }
+    }
+
+    // the next frame other than a heartbeat. throws EOFException if the server closed the connection and
+    // SocketTimeoutException if it has not sent anything for the timeout
+    Packet receive() throws IOException {
+        return next(true);
+    }
+
+    // sends a heartbeat and waits for the server to answer it, on a fresh connection that is the only traffic
+    void ping() throws IOException {
+        send(Packet.heartbeat());
+        Packet p = next(false);
+        if (p.getType() != Packet.Type.HEARTBEAT) {
+            throw new IOException("expected a heartbeat, got " + p.getType());
+        }
+    }
+
+    private Packet next(boolean skipHeartbeats) throws IOException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (true) {
+            Packet p = reader.next();
+            if (p == null) {
+                await(SelectionKey.OP_READ, deadline);
+                int n = reader.read(channel);
+                if (n < 0) {
+                    throw new EOFException("server closed the connection");
+                }
+                bytesReceived += n;
+            } else if (skipHeartbeats && p.getType() == Packet.Type.HEARTBEAT) {
+                // alive, just not done yet
+                deadline = System.nanoTime() + timeoutNanos;
+            } else {
+                return p;
+            }
+        }
+    }
+
+    private void await(int op, long deadline) throws IOException {
+        long left = deadline - System.nanoTime();
+        if (left <= 0) {
+            throw new SocketTimeoutException("nothing from the server for " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms");
+        }
+        key.interestOps(op);
+        selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(left)));
+        selector.selectedKeys().clear();
+        key.interestOps(0);
+    }
+
+    // everything on the wire both ways, frame headers and heartbeats included
+    long getBytesSent(){ return bytesSent;}
+
+    long getBytesReceived(){ return bytesReceived;}
+
+    boolean isOpen(){
+        return channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            // null if the constructor failed before it was opened
+            if (selector != null) {
+                selector.close();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.wstone.distributed;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * keeps one open Connection per server address, so a second run through the same organizer reuses the sockets
+ * instead of reconnecting. a connection that was closed is replaced the next time it is asked for.
+ */
+class ConnectionPool implements Closeable {
+    private final Map<InetSocketAddress, Connection> connections = new HashMap<>();
+    private long timeoutMillis;
+    private final int maxFrameBytes;
+
+    ConnectionPool(long timeoutMillis, int maxFrameBytes){
+        this.timeoutMillis = timeoutMillis;
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    // for connections opened from now on
+    void setTimeout(long timeoutMillis){
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    Connection get(InetSocketAddress address) throws IOException {
+        Connection connection = connections.get(address);
+        if (connection == null || !connection.isOpen()) {
+            connection = new Connection(address, timeoutMillis, TimeUnit.MILLISECONDS, maxFrameBytes);
+            connections.put(address, connection);
+        }
+        return connection;
+    }
+
+    // drops a connection that failed mid-message, its stream position is unknown
+    void discard(InetSocketAddress address){
+        Connection connection = connections.remove(address);
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @Override
+    public void close(){
+        for (Connection connection : connections.values()) {
+            try {
+                connection.close();
+            } catch (IOException ignored) {
+            }
+        }
+        connections.clear();
+    }
+}
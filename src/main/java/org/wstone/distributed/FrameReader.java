@@ -0,0 +1,61 @@
+package org.wstone.distributed;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/*
+ * cuts PacketCodec frames out of whatever a channel delivers. bytes go into one direct buffer that is reused for the
+ * whole connection and only grows when a frame does not fit, so a message can arrive in any number of pieces and
+ * several can arrive in one read.
+ */
+final class FrameReader {
+    private ByteBuffer buffer;
+    // anything longer is a corrupt length, not a band, see PacketCodec.maxFrameBytes
+    private final int maxFrameBytes;
+
+    FrameReader(int capacity, int maxFrameBytes){
+        buffer = ByteBuffer.allocateDirect(Math.min(capacity, maxFrameBytes)).order(ByteOrder.LITTLE_ENDIAN);
+        this.maxFrameBytes = maxFrameBytes;
+    }
+
+    // whatever the channel has right now, -1 once the other end closed it
+    int read(ReadableByteChannel channel) throws IOException {
+        return channel.read(buffer);
+    }
+
+    // the next complete frame, or null if more bytes are needed first
+    Packet next() throws IOException {
+        buffer.flip();
+        try {
+            if (buffer.remaining() < Integer.BYTES) {
+                return null;
+            }
+            int length = buffer.getInt(buffer.position());
+            if (length < PacketCodec.HEADER_BYTES - Integer.BYTES || length > maxFrameBytes - Integer.BYTES) {
+                throw new IOException("bad frame length " + length + ", at most " + (maxFrameBytes - Integer.BYTES) + " expected");
+            }
+            int frameBytes = Integer.BYTES + length;
+            if (buffer.remaining() < frameBytes) {
+                if (buffer.capacity() < frameBytes) {
+                    grow(frameBytes);
+                }
+                return null;
+            }
+            ByteBuffer frame = buffer.slice(buffer.position() + Integer.BYTES, length).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.position(buffer.position() + frameBytes);
+            return PacketCodec.decode(frame);
+        } finally {
+            buffer.compact();
+        }
+    }
+
+    // called with the buffer flipped, leaves the new one flipped too so compact() carries on as usual
+    private void grow(int capacity){
+        ByteBuffer bigger = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        bigger.put(buffer);
+        bigger.flip();
+        buffer = bigger;
+    }
+}
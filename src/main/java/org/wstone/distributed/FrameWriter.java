@@ -0,0 +1,46 @@
+package org.wstone.distributed;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+
+/*
+ * queues encoded frames in one reused direct buffer until the channel takes them. on a non-blocking channel flush()
+ * may leave bytes behind, the caller then waits for OP_WRITE and calls it again.
+ */
+final class FrameWriter {
+    // kept in write mode, everything before the position is still to be sent
+    private ByteBuffer buffer;
+
+    FrameWriter(int capacity){
+        buffer = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    void add(Packet p){
+        int size = PacketCodec.encodedSize(p);
+        if (buffer.remaining() < size) {
+            ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(buffer.position() + size, 2 * buffer.capacity()))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+        PacketCodec.encode(p, buffer);
+    }
+
+    // true once everything queued went out
+    boolean flush(WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        try {
+            channel.write(buffer);
+            return !buffer.hasRemaining();
+        } finally {
+            buffer.compact();
+        }
+    }
+
+    boolean isEmpty(){
+        return buffer.position() == 0;
+    }
+}
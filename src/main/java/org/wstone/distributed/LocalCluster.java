@@ -0,0 +1,132 @@
+package org.wstone.distributed;
+
+import org.wstone.concurrent.SnapshotSchedule;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * starts worker JVMs on loopback, one Server each, so the distributed code can be measured on a single machine.
+ * main() runs the same plate against 1, 2, ... workers and prints the time per step for each count, the scaling
+ * curve. on one host the workers share the cores, more of them than cores only adds overhead, so by default every
+ * worker steps its band on its share of them.
+ */
+public class LocalCluster implements Closeable {
+    private final List<Process> processes = new ArrayList<>();
+    private final List<String> endpoints = new ArrayList<>();
+
+    public LocalCluster(int workers, int firstPort) throws IOException {
+        this(workers, firstPort, Math.max(1, Runtime.getRuntime().availableProcessors() / workers));
+    }
+
+    // every worker steps its band on threads threads
+    public LocalCluster(int workers, int firstPort, int threads) throws IOException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        String classPath = System.getProperty("java.class.path");
+        try {
+            for (int i = 0; i < workers; i++) {
+                int port = firstPort + i;
+                Process process = new ProcessBuilder(java, "-XX:+UseNUMA", "-cp", classPath, Server.class.getName(),
+                        Integer.toString(port), Integer.toString(threads))
+                        .redirectErrorStream(true)
+                        .start();
+                processes.add(process);
+                awaitListening(process, port);
+                endpoints.add("127.0.0.1:" + port);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // the server prints one line once its socket is bound, whatever it prints after that goes to our stderr
+    private static void awaitListening(Process process, int port) throws IOException {
+        BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        String line = out.readLine();
+        if (line == null || !line.contains("listening")) {
+            throw new IOException("worker on port " + port + " did not start: " + line);
+        }
+        Thread drain = new Thread(() -> {
+            try {
+                for (String l; (l = out.readLine()) != null; ) {
+                    System.err.println("[worker " + port + "] " + l);
+                }
+            } catch (IOException ignored) {
+            }
+        }, "worker-" + port + "-output");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    public ClusterConfig getConfig(){
+        return ClusterConfig.of(endpoints);
+    }
+
+    @Override
+    public void close(){
+        for (Process process : processes) {
+            process.destroy();
+        }
+        for (Process process : processes) {
+            try {
+                process.waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // options: --workers 1,2,4 --size <height>x<width> --steps <n> --port <first port> --threads <per worker>
+    public static void main(String[] args) throws IOException {
+        String[] counts = {"1", "2", "4"};
+        int height = 400;
+        int width = 400;
+        int steps = 1000;
+        int port = 7001;
+        int threads = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--workers" -> counts = args[++i].split(",");
+                case "--size" -> {
+                    String[] size = args[++i].split("x");
+                    height = Integer.parseInt(size[0]);
+                    width = Integer.parseInt(size[1]);
+                }
+                case "--steps" -> steps = Integer.parseInt(args[++i]);
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        for (String count : counts) {
+            int workers = Integer.parseInt(count);
+            try (LocalCluster cluster = threads > 0 ? new LocalCluster(workers, port, threads) : new LocalCluster(workers, port)) {
+                Organizer o = new Organizer(height, width, 1000.0, 800.0, 1.25, 1.0, 1.75, steps, cluster.getConfig());
+                o.setSnapshotSchedule(SnapshotSchedule.never());
+                o.setLogSchedule(SnapshotSchedule.never());
+                long start = System.nanoTime();
+                try {
+                    o.simulateHeatTransfer();
+                } finally {
+                    o.shutdown();
+                }
+                System.out.printf("%d workers: %.1f us per step, bands %s, speedup per worker %s%n", workers,
+                        (System.nanoTime() - start) / 1e3 / steps, java.util.Arrays.toString(o.getStartRows()),
+                        speedups(o.getSpeedups()));
+            }
+        }
+    }
+
+    private static String speedups(double[] speedups){
+        StringBuilder sb = new StringBuilder();
+        for (double speedup : speedups) {
+            sb.append(sb.length() == 0 ? "" : ", ").append(String.format("%.2f", speedup));
+        }
+        return sb.toString();
+    }
+}
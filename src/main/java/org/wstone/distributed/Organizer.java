@@ -1,143 +1,602 @@
 package org.wstone.distributed;
 
-import javax.swing.*;
+import org.wstone.concurrent.CheckpointFile;
+import org.wstone.concurrent.CheckpointWriter;
+import org.wstone.concurrent.CoefficientField;
+import org.wstone.concurrent.FieldRecorder;
+import org.wstone.concurrent.SimulationListener;
+import org.wstone.concurrent.SimulationMetrics;
+import org.wstone.concurrent.SnapshotEvent;
+import org.wstone.concurrent.SnapshotSchedule;
+import org.wstone.concurrent.StepEvent;
+
 import java.io.*;
-import java.net.InetAddress;
-import java.net.Socket;
-import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+/*
+ * splits the plate into one band of rows per server of the ClusterConfig and only orchestrates. each server keeps its band for the whole
+ * run, per step the organizer just relays every band's first and last row to its neighbors, so a step moves O(width)
+ * data instead of the whole plate. the full field is only gathered when a listener wants a snapshot.
+ *
+ * requests are pipelined: the organizer writes to every server before it reads the first reply, so all bands step
+ * at the same time without a thread per server.
+ *
+ * the first split follows the configured weights. every server reports how long it computed, and every
+ * balanceInterval steps the organizer compares the slowest band with what an even split by measured speed would
+ * take. if that is more than IMBALANCE off it gathers the plate and sends every server its new band.
+ *
+ * the coefficients of a new plate come from a CoefficientField, a band only carries the seed and every server draws
+ * its own rows. they only go over the wire after a resume, since a checkpoint file does not say how they were drawn.
+ *
+ * every checkpointInterval steps the plate is gathered and kept as the checkpoint, the copy on disk is a CheckpointFile
+ * written by a background thread so stepping does not wait for it, and a later run can resumeFrom() it. a server that closes its connection or sends nothing, not even
+ * a heartbeat, for the heartbeat timeout is taken for dead. then every connection is dropped, since the others are
+ * somewhere in the middle of the same step, every configured server that answers a heartbeat gets a band again, a
+ * restarted one included, and the run goes on from the checkpoint. nothing after the checkpoint is trusted, the steps
+ * are replayed.
+ */
 public class Organizer {
     private final int iterations;
-    Visualization vis;
-    private static final int NUM_SERVERS =2;
-    private final ExecutorService executorService;
-    private int width;
-    private int height;
-    private Region[][] grid;
-    ConcurrentHashMap<String, Double> tempMap = new ConcurrentHashMap<>();
-    String host = "pi.cs.oswego.edu";
-    int startPort = 6001;
+    // a step is allowed to take this much longer than a perfect split before the bands get moved
+    private static final double IMBALANCE = 1.15;
+    // and by at least this much, smaller differences are scheduler noise and not worth a gather
+    private static final double MIN_GAIN_NANOS = 20_000;
+    // a run that keeps losing servers this often has a problem replaying will not fix
+    private static final int MAX_RECOVERIES = 10;
+    // every server we may use, cluster is the ones that were alive at the last recovery
+    private final ClusterConfig configured;
+    private ClusterConfig cluster;
+    private int servers;
+    private final int width;
+    private final int height;
+    private final double s;
+    private final double t;
+    private CoefficientField field;
+    // band b owns rows [startRows[b], startRows[b + 1])
+    private int[] startRows;
+    private Connection[] connections;
+    private long heartbeatTimeoutMillis = 5000;
+    private final ConnectionPool pool;
+    // every band's first and last row after the last step, these are the neighbors' halos for the next one
+    private double[][] firstRows;
+    private double[][] lastRows;
+    // the whole plate's coefficients when the servers can not draw them from field, after a resume, and for
+    // checkpoint files. bands are cut from it when they are rebalanced
+    private double[] coefficients;
+    private boolean generated;
+    // the seed of the plate's coefficients, 0 if not known
+    private long seed;
+    // compute time each server reported since the last balance check
+    private long[] computeNanos;
+    private int stepsSinceBalance;
+    // what every server reported since the last progress line, for the per-worker breakdown
+    private long[] loggedCompute;
+    private long[] loggedWork;
+    private long[] loggedWait;
+    private long[] loggedCodec;
+    private int stepsSinceLog;
+    // compute and work of every server over the whole run, for getSpeedups()
+    private long[] totalCompute;
+    private long[] totalWork;
+    // when this step's halo went out to every server, and the longest any server computed on it
+    private long[] sentAt;
+    private long slowestNanos;
+    private final SimulationMetrics metrics;
+    private int balanceInterval = 100;
+    // 0 keeps only the initial plate as the checkpoint
+    private int checkpointInterval = 0;
+    // puts every checkpoint on disk as well, null keeps them in memory only
+    private CheckpointWriter checkpointWriter;
+    private double[] checkpoint;
+    private int checkpointIteration;
+    // a checkpoint file to start the run from instead of a cold plate
+    private Path resumeFile;
+    // time the stepping thread spent on checkpoints, to see what they cost
+    private long checkpointNanos;
+    private int recoveries;
+    // the run stops once no cell changes by more than this in one step, 0 runs all iterations
+    private double tolerance = 0.0;
+    private final List<SimulationListener> listeners = new ArrayList<>();
+    private SnapshotSchedule snapshotSchedule = SnapshotSchedule.everyIterations(5);
+    private SnapshotSchedule logSchedule = SnapshotSchedule.everyIterations(5);
+    private final double[] snapshot;
 
 
+    // the two test servers from Server.generateServers
     public Organizer(int height, int width, double s, double t, double c1, double c2, double c3, int iterations){
+        this(height, width, s, t, c1, c2, c3, iterations, ClusterConfig.of("pi.cs.oswego.edu:6001", "pi.cs.oswego.edu:6002"));
+    }
+
+    public Organizer(int height, int width, double s, double t, double c1, double c2, double c3, int iterations, ClusterConfig cluster){
+        this.configured = cluster;
         this.width = width;
         this.height = height;
-        this.grid = new Region[height][width];
+        this.s = s;
+        this.t = t;
+        this.field = new CoefficientField(CoefficientField.randomSeed(), c1, c2, c3);
         this.iterations = iterations;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                grid[y][x] = new Region(c1, c2, c3);
-            }
+        snapshot = new double[width * height];
+        // a rebalance can give one server nearly the whole plate, its snapshot is the largest frame we read
+        pool = new ConnectionPool(heartbeatTimeoutMillis, PacketCodec.maxFrameBytes((long) width * height));
+        metrics = new SimulationMetrics("organizer", height, width);
+        useCluster(cluster);
+    }
+
+    // splits the rows by the configured weights, bands get handed out by distributeBands()
+    private void useCluster(ClusterConfig cluster){
+        this.cluster = cluster;
+        this.servers = cluster.size();
+        double[] weights = new double[servers];
+        for (int b = 0; b < servers; b++) {
+            weights[b] = cluster.getWeight(b);
         }
-        vis = new Visualization(this.tempMap, height*20, width*20, s, t);
+        this.startRows = ClusterConfig.partition(height, weights);
+        this.connections = new Connection[servers];
+        this.firstRows = new double[servers][];
+        this.lastRows = new double[servers][];
+        this.computeNanos = new long[servers];
+        this.loggedCompute = new long[servers];
+        this.loggedWork = new long[servers];
+        this.totalCompute = new long[servers];
+        this.totalWork = new long[servers];
+        this.loggedWait = new long[servers];
+        this.loggedCodec = new long[servers];
+        this.sentAt = new long[servers];
+        String[] names = new String[servers];
+        for (int b = 0; b < servers; b++) {
+            names[b] = cluster.getName(b);
+        }
+        metrics.setWorkers(names);
+    }
 
-        setUpNeighbors();
-        this.executorService = Executors.newFixedThreadPool(NUM_SERVERS);
-        initializeHeatSources(s, t);
+    // sets up the plate in snapshot and coefficients and hands it out, returns the iteration the run starts at
+    private int initializeBands() throws IOException {
+        coefficients = null;
+        int start = 0;
+        if (resumeFile != null) {
+            try (CheckpointFile file = CheckpointFile.open(resumeFile)) {
+                if (file.getWidth() != width || file.getHeight() != height) {
+                    throw new IOException(resumeFile + " holds a " + file.getWidth() + "x" + file.getHeight() + " plate, not " + width + "x" + height);
+                }
+                coefficients = new double[width * height];
+                file.readTemperatures(snapshot);
+                file.readCoefficients(coefficients);
+                start = file.getIteration();
+                seed = file.getSeed();
+                generated = false;
+            }
+        } else {
+            seed = field.getSeed();
+            generated = true;
+            System.out.println("coefficients from seed " + seed);
+            Arrays.fill(snapshot, 0.0);
+            initializeHeatSources(s, t);
+        }
+        useCluster(configured);
+        distributeBands();
+        keepCheckpoint(start);
+        return start;
     }
+
     void initializeHeatSources(double s, double t){
-        grid[0][0].setTemperature(s);
-        grid[height - 1][width -1].setTemperature(t);
+        snapshot[0] = s;
+        snapshot[width * height - 1] = t;
     }
 
-    private void setUpNeighbors() {
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                Region curRegion = grid[y][x];
+    // ships every server its rows of snapshot and coefficients, or the field to draw them from, the only time they travel besides a rebalance
+    private void distributeBands() throws IOException {
+        for (int b = 0; b < servers; b++) {
+            int from = startRows[b] * width;
+            int to = startRows[b + 1] * width;
+            connections[b] = pool.get(cluster.getEndpoint(b));
+            double[] temperatures = Arrays.copyOfRange(snapshot, from, to);
+            send(b, generated
+                    ? Packet.initBand(width, height, startRows[b], startRows[b + 1], temperatures, field)
+                    : Packet.initBand(width, height, startRows[b], startRows[b + 1], temperatures, Arrays.copyOfRange(coefficients, from, to)));
+            firstRows[b] = Arrays.copyOfRange(snapshot, from, from + width);
+            lastRows[b] = Arrays.copyOfRange(snapshot, to - width, to);
+        }
+        Arrays.fill(computeNanos, 0);
+        stepsSinceBalance = 0;
+    }
 
-                int[][] surroundings = {{-1, -1}, {-1, 0}, {-1, 1}, {0, -1}, {0, 1}, {1, -1}, {1, 0}, {1, 1}};
+    /*
+     * measured speed is rows * width * steps / computeNanos per server. the slowest band sets the step time, an even
+     * split by speed would take all cells / total speed. compute time only, a slow link does not show up here.
+     */
+    private void balance() throws IOException {
+        double[] speed = new double[servers];
+        double totalSpeed = 0.0;
+        double slowest = 0.0;
+        for (int b = 0; b < servers; b++) {
+            long nanos = Math.max(1, computeNanos[b]);
+            speed[b] = (double) (startRows[b + 1] - startRows[b]) * width * stepsSinceBalance / nanos;
+            totalSpeed += speed[b];
+            slowest = Math.max(slowest, (double) nanos / stepsSinceBalance);
+        }
+        double even = (double) width * height / totalSpeed;
+        Arrays.fill(computeNanos, 0);
+        stepsSinceBalance = 0;
+        if (slowest <= even * IMBALANCE || slowest - even < MIN_GAIN_NANOS) {
+            return;
+        }
+        int[] rows = ClusterConfig.partition(height, speed);
+        if (Arrays.equals(rows, startRows)) {
+            return;
+        }
+        gatherSnapshot();
+        startRows = rows;
+        distributeBands();
+        System.out.printf("rebalanced to rows %s, the slowest band took %.0f us per step against %.0f us for an even split%n",
+                Arrays.toString(startRows), slowest / 1e3, even / 1e3);
+    }
 
-                for (int[] s : surroundings) {
-                    int nX = x + s[1];
-                    int nY = y + s[0];
-                    if(nX >= 0 && nX < width && nY >=0 && nY < height){
-                        curRegion.neighbors.add(grid[nY][nX]);
-                    }
-                }
-            }
+    void setTolerance(double tolerance){
+        this.tolerance = tolerance;
+    }
+
+    void addListener(SimulationListener listener){
+        listeners.add(listener);
+    }
+
+    void setSnapshotSchedule(SnapshotSchedule snapshotSchedule){
+        this.snapshotSchedule = snapshotSchedule;
+    }
+
+    void setLogSchedule(SnapshotSchedule logSchedule){
+        this.logSchedule = logSchedule;
+    }
+
+    // steps between balance checks, 0 keeps the first split for the whole run
+    void setBalanceInterval(int balanceInterval){
+        this.balanceInterval = balanceInterval;
+    }
+
+    /*
+     * steps between checkpoints, and the file that gets a copy of each one, null for memory only. a lost server sends
+     * the run back to the last checkpoint, so this is also how many steps a failure costs at most
+     */
+    void setCheckpointing(int checkpointInterval, Path checkpointFile){
+        this.checkpointInterval = checkpointInterval;
+        this.checkpointWriter = checkpointFile == null ? null : new CheckpointWriter(checkpointFile);
+    }
+
+    // draws the coefficients of a new plate from this seed instead of a random one, see CoefficientField
+    void setSeed(long seed){
+        this.field = new CoefficientField(seed, field.getC1(), field.getC2(), field.getC3());
+    }
+
+    // the next run goes on from this checkpoint, iterations still counts from the start of the original run
+    void resumeFrom(Path resumeFile){
+        this.resumeFile = resumeFile;
+    }
+
+    // how long a server may stay silent before it counts as dead, well above Server.HEARTBEAT_MILLIS
+    void setHeartbeatTimeout(long heartbeatTimeoutMillis){
+        this.heartbeatTimeoutMillis = heartbeatTimeoutMillis;
+        pool.setTimeout(heartbeatTimeoutMillis);
+    }
+
+    // per server, how much faster its threads stepped its band than one of them alone would have
+    double[] getSpeedups(){
+        double[] speedups = new double[servers];
+        for (int b = 0; b < servers; b++) {
+            speedups[b] = speedup(totalWork[b], totalCompute[b]);
         }
+        return speedups;
+    }
+
+    private static double speedup(long work, long compute){
+        return compute == 0 ? 0.0 : (double) work / compute;
+    }
+
+    int[] getStartRows(){
+        return startRows.clone();
+    }
+
+    SimulationMetrics getMetrics(){ return metrics;}
+
+    // the servers still in use, fewer than configured after a failure
+    ClusterConfig getCluster(){
+        return cluster;
     }
 
-    void simulateHeatTransfer(JFrame frame) throws IOException {
-        frame.setSize( (vis.getWidth()), (vis.getHeight()));
-        frame.add(vis);
-        frame.setVisible(true);
+    void simulateHeatTransfer() throws IOException {
+        long start = System.nanoTime();
+        checkpointNanos = 0;
+        recoveries = 0;
+        int iteration = initializeBands();
+        metrics.start(iteration);
+        snapshotSchedule.start(iteration);
+        logSchedule.start(iteration);
+        stepsSinceLog = 0;
         /*
          * each iteration computes the heat transfer
          */
-        for (int iteration = 0; iteration < iterations; iteration++) {
-            CountDownLatch latch = new CountDownLatch(NUM_SERVERS);
-            int rowsPerThread = height/NUM_SERVERS;
-            for (int threadIndex = 0; threadIndex < NUM_SERVERS; threadIndex++) {
-                final int startRow = threadIndex * rowsPerThread;
-                final int endRow = (threadIndex == NUM_SERVERS - 1) ? height : startRow + rowsPerThread;
-                // create a new packet and send it to a client.
-                // after we send it to the client we want to wait and field the incoming Packets.
-                Packet p = new Packet(width, height, grid, startRow, endRow);
-                //System.out.println("The size of packet # " + iteration + " is " + measurePacketSize(p));
-                int port = startPort + threadIndex;
-                executorService.submit(() -> {
-                    try{
-                        Packet receivedPacket = sendAndWaitForPackets(p, host, port);
-                        updateGridFromPacket(receivedPacket, startRow, endRow);
-                    } finally {
-                        latch.countDown();
+        double residual = Double.NaN;
+        while (true) {
+            try {
+                while (iteration < iterations && !Thread.currentThread().isInterrupted()) {
+                    StepEvent event = new StepEvent();
+                    event.begin();
+                    residual = step();
+                    iteration++;
+                    event.end();
+                    metrics.stepDone(iteration, residual);
+                    if (event.shouldCommit()) {
+                        event.iteration = iteration;
+                        event.residual = residual;
+                        event.cells = (long) width * height;
+                        event.slowestNanos = slowestNanos;
+                        event.commit();
                     }
-                });
-            }try {
-                latch.await();
-            }catch (InterruptedException e){
-                Thread.currentThread().interrupt();
+                    if (residual < tolerance) {
+                        break;
+                    }
+                    afterStep(iteration, residual);
+                }
+                if (!listeners.isEmpty()) {
+                    gatherSnapshot();
+                    for (SimulationListener listener : listeners) {
+                        listener.onFinished(iteration, residual, snapshot);
+                    }
+                }
                 break;
+            } catch (IOException e) {
+                iteration = recover(e);
             }
-            if(iteration % 5 == 0 && iteration != 0){
-                writeToMap();
-                SwingUtilities.invokeLater(vis::repaint);
-                System.out.println(iteration + " # --->");
+        }
+        System.out.printf("finished after %d iterations, residual %.3e%n", iteration, residual);
+        if (checkpointInterval > 0) {
+            System.out.printf("checkpoints took %.2f%% of the run%n", 100.0 * checkpointNanos / (System.nanoTime() - start));
+        }
+    }
+
+    // one step on every band, returns the residual
+    private double step() throws IOException {
+        // every halo goes out before any reply is read, a band must not see its neighbor's rows from this step
+        for (int b = 0; b < servers; b++) {
+            send(b, Packet.haloRows(b > 0 ? lastRows[b - 1] : null, b < servers - 1 ? firstRows[b + 1] : null));
+            sentAt[b] = System.nanoTime();
+        }
+        double residual = 0.0;
+        slowestNanos = 0;
+        for (int b = 0; b < servers; b++) {
+            Packet ack = receive(b);
+            /*
+             * the round trip is the time from the halo to its ack minus what the server says it computed. acks are
+             * read in server order, so one that came in while we still waited for an earlier server counts that wait
+             * too, it is an upper bound
+             */
+            long rtt = System.nanoTime() - sentAt[b] - ack.getComputeNanos();
+            metrics.workerStep(b, ack.getComputeNanos(), ack.getWaitNanos());
+            metrics.workerTraffic(b, connections[b].getBytesSent(), connections[b].getBytesReceived(), Math.max(0, rtt));
+            slowestNanos = Math.max(slowestNanos, ack.getComputeNanos());
+            residual = Math.max(residual, ack.getResidual());
+            computeNanos[b] += ack.getComputeNanos();
+            loggedCompute[b] += ack.getComputeNanos();
+            loggedWork[b] += ack.getWorkNanos();
+            totalCompute[b] += ack.getComputeNanos();
+            totalWork[b] += ack.getWorkNanos();
+            loggedWait[b] += ack.getWaitNanos();
+            loggedCodec[b] += ack.getCodecNanos();
+            firstRows[b] = ack.getTop();
+            lastRows[b] = ack.getBottom();
+        }
+        return residual;
+    }
+
+    private void afterStep(int iteration, double residual) throws IOException {
+        if (balanceInterval > 0 && servers > 1 && ++stepsSinceBalance >= balanceInterval) {
+            balance();
+        }
+        if (checkpointInterval > 0 && iteration % checkpointInterval == 0) {
+            long start = System.nanoTime();
+            gatherSnapshot();
+            keepCheckpoint(iteration);
+            checkpointNanos += System.nanoTime() - start;
+        }
+        if (!listeners.isEmpty() && snapshotSchedule.isDue(iteration)) {
+            long start = System.nanoTime();
+            SnapshotEvent event = new SnapshotEvent();
+            event.begin();
+            gatherSnapshot();
+            for (SimulationListener listener : listeners) {
+                listener.onSnapshot(iteration, residual, snapshot);
+            }
+            metrics.snapshotDone(System.nanoTime() - start);
+            if (event.shouldCommit()) {
+                event.iteration = iteration;
+                event.commit();
             }
         }
+        stepsSinceLog++;
+        if (logSchedule.isDue(iteration)) {
+            System.out.println(iteration + " # ---> residual " + residual);
+            logBreakdown();
+        }
     }
-    private void writeToMap(){
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int[] p = {x, y};
-                tempMap.put(Arrays.toString(p), grid[y][x].temperature);
+
+    // snapshot holds the plate as of the given iteration
+    private void keepCheckpoint(int iteration){
+        checkpoint = snapshot.clone();
+        checkpointIteration = iteration;
+        if (checkpointWriter != null) {
+            // the clone is never written to again, so it can go to the writer as it is
+            if (coefficients == null) {
+                // only once, they never change
+                coefficients = new double[width * height];
+                field.fill(coefficients, 0, width, 0, height);
             }
+            checkpointWriter.write(width, height, iteration, s, t, seed, checkpoint, coefficients);
         }
     }
 
-    private Packet sendAndWaitForPackets(Packet p, String host, int port) {
-        try (Socket socket = new Socket(host, port);
-             ObjectOutputStream out = new ObjectOutputStream(socket.getOutputStream());
-             ObjectInputStream in = new ObjectInputStream(socket.getInputStream())) {
+    /*
+     * drops every connection, hands the checkpoint out again to whichever configured servers answer a heartbeat and
+     * returns the iteration to go on from
+     */
+    private int recover(IOException cause) throws IOException {
+        if (++recoveries > MAX_RECOVERIES) {
+            throw new IOException("giving up after " + MAX_RECOVERIES + " recoveries", cause);
+        }
+        System.err.printf("%s, going back to iteration %d%n", cause.getMessage(), checkpointIteration);
+        pool.close();
+        List<Integer> alive = new ArrayList<>();
+        for (int i = 0; i < configured.size() && alive.size() < height; i++) {
+            try {
+                pool.get(configured.getEndpoint(i)).ping();
+                alive.add(i);
+            } catch (IOException e) {
+                pool.discard(configured.getEndpoint(i));
+                System.err.println("    " + configured.getName(i) + " is not answering: " + e.getMessage());
+            }
+        }
+        if (alive.isEmpty()) {
+            throw new IOException("no server left to run on", cause);
+        }
+        useCluster(configured.select(alive));
+        System.arraycopy(checkpoint, 0, snapshot, 0, snapshot.length);
+        distributeBands();
+        System.err.println("    running on " + cluster + ", rows " + Arrays.toString(startRows));
+        return checkpointIteration;
+    }
 
-            out.writeObject(p);
-            out.flush();
+    /*
+     * the average step of every server since the last call. wait high and compute low means the band is too small
+     * to hide the round trip, the other way round the network is not what holds the step up. the speedup is what the
+     * server's threads got out of its cores, well below the thread count means its band is too thin to split
+     */
+    private void logBreakdown(){
+        for (int b = 0; b < servers; b++) {
+            System.out.printf("    %s rows %d-%d: compute %.1f us (speedup %.2f), wait %.1f us, codec %.1f us per step%n",
+                    cluster.getName(b), startRows[b], startRows[b + 1] - 1, loggedCompute[b] / 1e3 / stepsSinceLog,
+                    speedup(loggedWork[b], loggedCompute[b]), loggedWait[b] / 1e3 / stepsSinceLog, loggedCodec[b] / 1e3 / stepsSinceLog);
+        }
+        Arrays.fill(loggedCompute, 0);
+        Arrays.fill(loggedWork, 0);
+        Arrays.fill(loggedWait, 0);
+        Arrays.fill(loggedCodec, 0);
+        stepsSinceLog = 0;
+    }
+
+    // asks every server for its band and stitches them together row-major
+    private void gatherSnapshot() throws IOException {
+        for (int b = 0; b < servers; b++) {
+            send(b, Packet.snapshotRequest());
+        }
+        for (int b = 0; b < servers; b++) {
+            double[] rows = receive(b).getTemperatures();
+            System.arraycopy(rows, 0, snapshot, startRows[b] * width, rows.length);
+        }
+    }
 
-            // Wait and receive the response packet
-            return (Packet) in.readObject();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
-            // Return original packet or handle error
-            return p;
+    private void send(int server, Packet p) throws IOException {
+        try {
+            connections[server].send(p);
+        } catch (IOException e) {
+            throw lost(server, e);
         }
     }
-    private void updateGridFromPacket(Packet receivedPacket, int startRow, int endRow) {
-        // copy received grid data to the corresponding section of the current grid, decommissioned for testing
-//        for (int row = startRow; row < endRow; row++) {
-//            System.arraycopy(receivedPacket.getGrid()[row], 0, grid[row], 0, width);
-//        }
-        this.grid = receivedPacket.getGrid();
+
+    private Packet receive(int server) throws IOException {
+        try {
+            return connections[server].receive();
+        } catch (IOException e) {
+            throw lost(server, e);
+        }
+    }
+
+    // a connection that failed mid-message cannot be trusted again, the step fails instead of going on with stale rows
+    private IOException lost(int server, IOException e){
+        pool.discard(cluster.getEndpoint(server));
+        return new IOException("lost server " + cluster.getName(server), e);
+    }
+
+    // closing the connections lets the servers drop their bands
+    void shutdown(){
+        pool.close();
+        if (checkpointWriter != null) {
+            // the last checkpoint still gets written
+            checkpointWriter.close();
+        }
     }
 
+    /*
+     * options: --headless, --snapshot-every <n|250ms|2s|never>, --log-every <n|250ms|2s|never>,
+     * --cluster <file> or --workers host:port[=weight],... (see ClusterConfig), the two test servers otherwise,
+     * --checkpoint-every <n>, --checkpoint-file <path>, --resume <checkpoint file>, --heartbeat-timeout <ms> and
+     * --record <path> for a FieldRecorder file of the snapshots, --metrics <path|-> and --metrics-every <ms> like
+     * Simulation, --seed <n> for the coefficients of a new plate
+     */
     public static void main(String[] args) throws IOException {
-        Organizer o = new Organizer(25, 25, 800, 1000, 1.25, 1.0, 1.75, Integer.MAX_VALUE);
-        JFrame frame = new JFrame("Heat Transfer Simulation");
-        o.simulateHeatTransfer(frame);
+        boolean headless = false;
+        ClusterConfig cluster = ClusterConfig.of("pi.cs.oswego.edu:6001", "pi.cs.oswego.edu:6002");
+        SnapshotSchedule snapshots = SnapshotSchedule.everyIterations(5);
+        SnapshotSchedule log = SnapshotSchedule.everyIterations(5);
+        int checkpointInterval = 1000;
+        Path checkpointFile = null;
+        long heartbeatTimeout = 5000;
+        Path resume = null;
+        Path record = null;
+        String metricsReport = null;
+        long metricsPeriod = 1000;
+        Long seed = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--headless" -> headless = true;
+                case "--snapshot-every" -> snapshots = SnapshotSchedule.parse(args[++i]);
+                case "--log-every" -> log = SnapshotSchedule.parse(args[++i]);
+                case "--cluster" -> cluster = ClusterConfig.load(Path.of(args[++i]));
+                case "--workers" -> cluster = ClusterConfig.parse(args[++i]);
+                case "--checkpoint-every" -> checkpointInterval = Integer.parseInt(args[++i]);
+                case "--checkpoint-file" -> checkpointFile = Path.of(args[++i]);
+                case "--resume" -> resume = Path.of(args[++i]);
+                case "--record" -> record = Path.of(args[++i]);
+                case "--metrics" -> metricsReport = args[++i];
+                case "--metrics-every" -> metricsPeriod = Long.parseLong(args[++i]);
+                case "--heartbeat-timeout" -> heartbeatTimeout = Long.parseLong(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                default -> throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+
+        Organizer o = new Organizer(25, 25, 800, 1000, 1.25, 1.0, 1.75, Integer.MAX_VALUE, cluster);
+        o.setTolerance(1e-9);
+        o.setSnapshotSchedule(snapshots);
+        o.setLogSchedule(log);
+        o.setCheckpointing(checkpointInterval, checkpointFile);
+        o.setHeartbeatTimeout(heartbeatTimeout);
+        if (seed != null) {
+            o.setSeed(seed);
+        }
+        if (resume != null) {
+            o.resumeFrom(resume);
+        }
+        FieldRecorder recorder = null;
+        if (record != null) {
+            recorder = new FieldRecorder(record, 25, 25, 8);
+            o.addListener(recorder);
+        }
+        if (!headless) {
+            o.addListener(Visualization.open("Heat Transfer Simulation", 25, 25, 800, 1000, o.getMetrics()));
+        }
+        o.getMetrics().register();
+        if (metricsReport != null) {
+            o.getMetrics().startReporting(metricsReport.equals("-") ? null : Path.of(metricsReport), metricsPeriod, TimeUnit.MILLISECONDS);
+        }
+        try {
+            o.simulateHeatTransfer();
+        } finally {
+            o.shutdown();
+            o.getMetrics().stopReporting();
+            if (recorder != null) {
+                recorder.close();
+            }
+        }
     }
 }
@@ -1,49 +1,125 @@
 package org.wstone.distributed;
 
-import java.io.Serializable;
+import org.wstone.concurrent.CoefficientField;
 
+/*
+ * one message between the organizer and a server. the band itself goes over once in INIT_BAND, after that a step
+ * only moves boundary rows: HALO_ROWS brings the rows just above and below the band and starts a step, STEP_ACK
+ * returns the residual and the band's new first and last row. the whole band only travels again when the organizer
+ * asks for a snapshot. a band whose coefficients come from a seed does not carry them at all, the server generates
+ * its rows from the CoefficientField. HEARTBEAT goes both ways: a server sends one when it has been quiet for a while, so the
+ * organizer can tell a dead server from a slow one, and answers one right away. see PacketCodec for how it looks on
+ * the wire.
+ */
+public class Packet {
+    enum Type { INIT_BAND, HALO_ROWS, STEP_ACK, SNAPSHOT_REQUEST, SNAPSHOT_RESPONSE, HEARTBEAT }
 
-public class Packet implements Serializable {
+    private final Type type;
     private int width;
     private int height;
-    private Region[][] grid;
     private int startRow;
     private int endRow;
+    // HALO_ROWS: the rows above and below the band, null at the edge of the plate. STEP_ACK: the band's first and last row
+    private double[] top;
+    private double[] bottom;
+    // INIT_BAND and SNAPSHOT_RESPONSE: the band's rows, row-major
+    private double[] temperatures;
+    private double[] coefficients;
+    // INIT_BAND instead of coefficients
+    private CoefficientField field;
+    // largest absolute change of any cell in the band, STEP_ACK only
+    private double residual;
+    // STEP_ACK only, where the server's time for the step went. compute is stepping the band, the organizer balances
+    // the bands by it. work is the same added up over the server's threads, work / compute is the speedup they got.
+    // wait is idling for the halos after the early part of the step was done. codec is decoding the halos and encoding
+    // the previous ack
+    private long computeNanos;
+    private long workNanos;
+    private long waitNanos;
+    private long codecNanos;
 
-    public Packet(int width, int height, Region[][] grid, int startRow, int endRow){
-        this.width = width;
-        this.height = height;
-        this.grid = grid;
-        this.startRow = startRow;
-        this.endRow = endRow;
-    }
-    protected Region[][] getGrid(){
-        return grid;
-    }
-
-    protected Region[][] computeHeatTransfer(){
-        for (int y = startRow; y < endRow; y++) {
-            for (int x = 0; x < width; x++) {
-                Region curRegion = grid[y][x];
-                if((x==0 && y==0) || (x==width-1 && y==height-1)){
-                    continue;
-                }
-                double totalChange = 0.0;
-                int neighborCount = 0;
-
-                for (Region neighbor : curRegion.neighbors){
-                    double tempDifference = neighbor.temperature - curRegion.temperature;
-                    double heatTransfer = tempDifference * curRegion.thermalCoefficient;
-                    totalChange += heatTransfer;
-                    neighborCount++;
-                }
-                if (neighborCount > 0){
-                    double change = totalChange / neighborCount;
-                    double t = curRegion.temperature;
-                    curRegion.setTemperature(t+change);
-                }
-            }
-        }
-        return grid;
+    private Packet(Type type){
+        this.type = type;
     }
+
+    static Packet initBand(int width, int height, int startRow, int endRow, double[] temperatures, double[] coefficients){
+        Packet p = new Packet(Type.INIT_BAND);
+        p.width = width;
+        p.height = height;
+        p.startRow = startRow;
+        p.endRow = endRow;
+        p.temperatures = temperatures;
+        p.coefficients = coefficients;
+        return p;
+    }
+
+    // the server draws the band's coefficients from the field itself
+    static Packet initBand(int width, int height, int startRow, int endRow, double[] temperatures, CoefficientField field){
+        Packet p = initBand(width, height, startRow, endRow, temperatures, (double[]) null);
+        p.field = field;
+        return p;
+    }
+
+    static Packet haloRows(double[] above, double[] below){
+        Packet p = new Packet(Type.HALO_ROWS);
+        p.top = above;
+        p.bottom = below;
+        return p;
+    }
+
+    static Packet stepAck(double residual, long computeNanos, long workNanos, long waitNanos, long codecNanos, double[] firstRow, double[] lastRow){
+        Packet p = new Packet(Type.STEP_ACK);
+        p.residual = residual;
+        p.computeNanos = computeNanos;
+        p.workNanos = workNanos;
+        p.waitNanos = waitNanos;
+        p.codecNanos = codecNanos;
+        p.top = firstRow;
+        p.bottom = lastRow;
+        return p;
+    }
+
+    static Packet snapshotRequest(){
+        return new Packet(Type.SNAPSHOT_REQUEST);
+    }
+
+    static Packet heartbeat(){
+        return new Packet(Type.HEARTBEAT);
+    }
+
+    static Packet snapshotResponse(double[] temperatures){
+        Packet p = new Packet(Type.SNAPSHOT_RESPONSE);
+        p.temperatures = temperatures;
+        return p;
+    }
+
+    Type getType(){ return type;}
+
+    int getWidth(){ return width;}
+
+    int getHeight(){ return height;}
+
+    int getStartRow(){ return startRow;}
+
+    int getEndRow(){ return endRow;}
+
+    double[] getTop(){ return top;}
+
+    double[] getBottom(){ return bottom;}
+
+    double[] getTemperatures(){ return temperatures;}
+
+    double[] getCoefficients(){ return coefficients;}
+
+    CoefficientField getField(){ return field;}
+
+    double getResidual(){ return residual;}
+
+    long getComputeNanos(){ return computeNanos;}
+
+    long getWorkNanos(){ return workNanos;}
+
+    long getWaitNanos(){ return waitNanos;}
+
+    long getCodecNanos(){ return codecNanos;}
 }
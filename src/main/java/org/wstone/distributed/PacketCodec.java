@@ -0,0 +1,197 @@
+package org.wstone.distributed;
+
+import org.wstone.concurrent.CoefficientField;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/*
+ * the wire format, every message is one frame:
+ *
+ *   int    length of everything after this field
+ *   byte   VERSION
+ *   byte   type, the Packet.Type ordinal
+ *   ...    payload
+ *
+ * all numbers little-endian, which is what x86 and arm hosts have in memory so the doubles go through as they are.
+ * a row or band is an int count followed by that many doubles, a count of -1 stands for null. payloads:
+ *
+ *   INIT_BAND          int width, int height, int startRow, int endRow, long seed, double c1, double c2, double c3,
+ *                      rows temperatures, rows coefficients. null coefficients come from CoefficientField(seed, c1, c2,
+ *                      c3), otherwise seed and c1 to c3 are 0
+ *   HALO_ROWS          row above, row below
+ *   STEP_ACK           double residual, long computeNanos, long workNanos, long waitNanos, long codecNanos, first row,
+ *                      last row
+ *   SNAPSHOT_REQUEST   nothing
+ *   SNAPSHOT_RESPONSE  rows temperatures
+ *   HEARTBEAT          nothing
+ *
+ * a reader that sees another version refuses the frame instead of guessing, bump VERSION on any layout change.
+ */
+final class PacketCodec {
+    static final byte VERSION = 6;
+    static final int HEADER_BYTES = Integer.BYTES + 2;
+    // the largest band a server takes unless told otherwise, an INIT_BAND for it is 256 MB with the coefficients
+    static final int DEFAULT_MAX_BAND_CELLS = 1 << 24;
+
+    private PacketCodec(){
+    }
+
+    // the whole frame including the length field
+    static int encodedSize(Packet p){
+        int size = HEADER_BYTES;
+        switch (p.getType()) {
+            case INIT_BAND -> size += 4 * Integer.BYTES + Long.BYTES + 3 * Double.BYTES + arraySize(p.getTemperatures()) + arraySize(p.getCoefficients());
+            case HALO_ROWS -> size += arraySize(p.getTop()) + arraySize(p.getBottom());
+            case STEP_ACK -> size += Double.BYTES + 4 * Long.BYTES + arraySize(p.getTop()) + arraySize(p.getBottom());
+            case SNAPSHOT_REQUEST -> { }
+            case SNAPSHOT_RESPONSE -> size += arraySize(p.getTemperatures());
+            case HEARTBEAT -> { }
+        }
+        return size;
+    }
+
+    /*
+     * the largest frame a band of that many cells makes, an INIT_BAND with both arrays. a FrameReader refuses any
+     * length above it, a corrupt or hostile length field would otherwise have it allocate up to 2 GB for the frame
+     */
+    static int maxFrameBytes(long bandCells){
+        long bytes = HEADER_BYTES + 4 * Integer.BYTES + Long.BYTES + 3 * Double.BYTES + 2 * (Integer.BYTES + bandCells * Double.BYTES);
+        if (bandCells < 0 || bytes > Integer.MAX_VALUE - 64) {
+            throw new IllegalArgumentException("a band of " + bandCells + " cells does not fit in one frame");
+        }
+        return (int) bytes;
+    }
+
+    private static int arraySize(double[] a){
+        return Integer.BYTES + (a == null ? 0 : a.length * Double.BYTES);
+    }
+
+    // appends one frame at the buffer's position, the buffer needs encodedSize(p) bytes left and little-endian order
+    static void encode(Packet p, ByteBuffer buf){
+        buf.putInt(encodedSize(p) - Integer.BYTES);
+        buf.put(VERSION);
+        buf.put((byte) p.getType().ordinal());
+        switch (p.getType()) {
+            case INIT_BAND -> {
+                buf.putInt(p.getWidth());
+                buf.putInt(p.getHeight());
+                buf.putInt(p.getStartRow());
+                buf.putInt(p.getEndRow());
+                CoefficientField field = p.getField();
+                buf.putLong(field == null ? 0 : field.getSeed());
+                buf.putDouble(field == null ? 0 : field.getC1());
+                buf.putDouble(field == null ? 0 : field.getC2());
+                buf.putDouble(field == null ? 0 : field.getC3());
+                putArray(buf, p.getTemperatures());
+                putArray(buf, p.getCoefficients());
+            }
+            case HALO_ROWS -> {
+                putArray(buf, p.getTop());
+                putArray(buf, p.getBottom());
+            }
+            case STEP_ACK -> {
+                buf.putDouble(p.getResidual());
+                buf.putLong(p.getComputeNanos());
+                buf.putLong(p.getWorkNanos());
+                buf.putLong(p.getWaitNanos());
+                buf.putLong(p.getCodecNanos());
+                putArray(buf, p.getTop());
+                putArray(buf, p.getBottom());
+            }
+            case SNAPSHOT_REQUEST -> { }
+            case SNAPSHOT_RESPONSE -> putArray(buf, p.getTemperatures());
+            case HEARTBEAT -> { }
+        }
+    }
+
+    private static void putArray(ByteBuffer buf, double[] a){
+        if (a == null) {
+            buf.putInt(-1);
+            return;
+        }
+        buf.putInt(a.length);
+        // the bulk put goes through the double view so it is one copy instead of a putDouble per element
+        buf.asDoubleBuffer().put(a);
+        buf.position(buf.position() + a.length * Double.BYTES);
+    }
+
+    /*
+     * reads the frame body that follows a length field, from the buffer's position to its limit: version, type and
+     * payload. throws if the version is not ours or the payload does not fill the frame exactly.
+     */
+    static Packet decode(ByteBuffer buf) throws IOException {
+        byte version = buf.get();
+        if (version != VERSION) {
+            throw new IOException("unsupported wire version " + version + ", expected " + VERSION);
+        }
+        int type = buf.get();
+        Packet.Type[] types = Packet.Type.values();
+        if (type < 0 || type >= types.length) {
+            throw new IOException("unknown message type " + type);
+        }
+        Packet p;
+        try {
+            p = switch (types[type]) {
+                case INIT_BAND -> {
+                    int width = buf.getInt();
+                    int height = buf.getInt();
+                    int startRow = buf.getInt();
+                    int endRow = buf.getInt();
+                    CoefficientField field = new CoefficientField(buf.getLong(), buf.getDouble(), buf.getDouble(), buf.getDouble());
+                    double[] temperatures = getArray(buf);
+                    double[] coefficients = getArray(buf);
+                    checkBand(width, height, startRow, endRow, temperatures, coefficients);
+                    yield coefficients == null
+                            ? Packet.initBand(width, height, startRow, endRow, temperatures, field)
+                            : Packet.initBand(width, height, startRow, endRow, temperatures, coefficients);
+                }
+                case HALO_ROWS -> Packet.haloRows(getArray(buf), getArray(buf));
+                case STEP_ACK -> {
+                    double residual = buf.getDouble();
+                    long computeNanos = buf.getLong();
+                    long workNanos = buf.getLong();
+                    long waitNanos = buf.getLong();
+                    long codecNanos = buf.getLong();
+                    yield Packet.stepAck(residual, computeNanos, workNanos, waitNanos, codecNanos, getArray(buf), getArray(buf));
+                }
+                case SNAPSHOT_REQUEST -> Packet.snapshotRequest();
+                case SNAPSHOT_RESPONSE -> Packet.snapshotResponse(getArray(buf));
+                case HEARTBEAT -> Packet.heartbeat();
+            };
+        } catch (RuntimeException e) {
+            // a BufferUnderflowException, the frame ended early
+            throw new IOException("malformed " + types[type] + " frame", e);
+        }
+        if (buf.hasRemaining()) {
+            throw new IOException(buf.remaining() + " bytes left over after a " + types[type] + " frame");
+        }
+        return p;
+    }
+
+    // a band has to lie on its plate and carry a value per cell, the server would allocate and step whatever it says
+    private static void checkBand(int width, int height, int startRow, int endRow, double[] temperatures, double[] coefficients) throws IOException {
+        if (width <= 0 || height <= 0 || startRow < 0 || startRow >= endRow || endRow > height) {
+            throw new IOException("INIT_BAND rows " + startRow + "-" + endRow + " do not fit a " + height + "x" + width + " plate");
+        }
+        long cells = (long) (endRow - startRow) * width;
+        if (temperatures == null || temperatures.length != cells || (coefficients != null && coefficients.length != cells)) {
+            throw new IOException("INIT_BAND arrays do not match its " + cells + " cells");
+        }
+    }
+
+    // the count is checked against what is left of the frame before anything is allocated for it
+    private static double[] getArray(ByteBuffer buf) throws IOException {
+        int length = buf.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buf.remaining() / Double.BYTES) {
+            throw new IOException("array of " + length + " doubles in a frame with " + buf.remaining() + " bytes left");
+        }
+        double[] a = new double[length];
+        buf.asDoubleBuffer().get(a);
+        buf.position(buf.position() + length * Double.BYTES);
+        return a;
+    }
+}
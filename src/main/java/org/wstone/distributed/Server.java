@@ -1,20 +1,38 @@
 package org.wstone.distributed;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
 import java.util.concurrent.*;
 
 public class Server {
+    /*
+     * with no arguments the two test servers on 6001 and 6002, otherwise one server on the given port, stepping its
+     * band on the given number of threads or on every core, and taking bands of up to the given number of cells,
+     * PacketCodec.DEFAULT_MAX_BAND_CELLS by default. run it with -XX:+UseNUMA on a multi-socket box, see Band
+     */
     public static void main(String[] args) throws IOException {
-        generateServers();
+        if (args.length == 0) {
+            generateServers();
+        } else {
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            int maxBandCells = args.length > 2 ? Integer.parseInt(args[2]) : PacketCodec.DEFAULT_MAX_BAND_CELLS;
+            new Server(Integer.parseInt(args[0]), threads, maxBandCells).listen();
+        }
     }
 
+    // the two share the machine, so each gets half the cores
     static void generateServers() throws IOException {
         ExecutorService executorService = Executors.newFixedThreadPool(2);
 
-        Server server1 = new Server(6001);
-        Server server2 = new Server(6002);
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        Server server1 = new Server(6001, threads);
+        Server server2 = new Server(6002, threads);
 
         executorService.submit(() -> {
             try {
@@ -34,74 +52,256 @@ public class Server {
     }
 
 
+    // a session that holds a band and has sent nothing for this long gets a heartbeat, the organizer's timeout has to
+    // be well above it. a step that computes longer than the timeout looks like a dead server
+    static final long HEARTBEAT_MILLIS = 500;
+
     int port;
-    ServerSocket ss;
+    // how many slabs a band is split into, see Band
+    final int threads;
+    // no frame from an organizer is longer than an INIT_BAND of the largest band we take
+    final int maxFrameBytes;
+    ServerSocketChannel ss;
 
     public Server(int port) throws IOException {
+        this(port, Runtime.getRuntime().availableProcessors());
+    }
+
+    public Server(int port, int threads) throws IOException {
+        this(port, threads, PacketCodec.DEFAULT_MAX_BAND_CELLS);
+    }
+
+    public Server(int port, int threads, int maxBandCells) throws IOException {
         this.port = port;
-        ss = new ServerSocket(port);
+        this.threads = threads;
+        this.maxFrameBytes = PacketCodec.maxFrameBytes(maxBandCells);
+        ss = ServerSocketChannel.open();
+        ss.bind(new InetSocketAddress(port));
+        ss.configureBlocking(false);
     }
 
     /*
+     * one thread and one selector serve every connection, each band brings its own worker threads for the stepping,
+     * see Band. an organizer keeps its connection open for the whole run: it sends the band once, then a HALO_ROWS
+     * per step, which we answer with a STEP_ACK, and a SNAPSHOT_REQUEST whenever it wants the whole band back. the
+     * band lives as long as the connection.
      *
-     * Listens for a packet to be sent, the packet contains all the info to do compute heat transfer,
-     * which it will do then send back the grid.
-     *
-     * then the grid will be sent back to the organizer
-     *
+     * once an ack is out a session starts the next step on its interior rows right away, so that work overlaps the
+     * round trip through the organizer, see Band. anything other than the next HALO_ROWS rolls that back first.
+     * between steps the loop wakes up every HEARTBEAT_MILLIS to keep quiet sessions alive.
      */
     void listen() throws IOException {
-        try{
+        try (Selector selector = Selector.open()) {
+            ss.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("Server is listening on port " + port + " with " + threads + " threads");
 
-            ExecutorService executor = Executors.newSingleThreadExecutor();
-
-            System.out.println("Server is listening on port " + port);
+            while (true) {
+                selector.select(HEARTBEAT_MILLIS);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isAcceptable()) {
+                        accept(selector);
+                        continue;
+                    }
+                    Session session = (Session) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            session.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            session.write();
+                        }
+                    } catch (IOException e) {
+                        System.err.println("Client connection error: " + e.getMessage());
+                        session.close();
+                    } catch (RuntimeException e) {
+                        // a bad band or a bug in stepping it ends this session, not the server and its other sessions
+                        System.err.println("Closing session after " + e);
+                        session.close();
+                    }
+                }
+                sendHeartbeats(selector);
+            }
+        } finally {
+            ss.close();
+        }
+    }
 
-            while(true){
-                Socket cs = ss.accept();
-                System.out.println("Client connected: " + cs.getInetAddress());
-                executor.submit(() -> processOrganizerConnection(cs));
+    private static void sendHeartbeats(Selector selector){
+        long now = System.nanoTime();
+        for (SelectionKey key : selector.keys()) {
+            if (key.isValid() && key.attachment() instanceof Session session) {
+                try {
+                    session.heartbeat(now);
+                } catch (IOException e) {
+                    System.err.println("Client connection error: " + e.getMessage());
+                    session.close();
+                }
             }
-        } catch (IOException e) {
-            System.err.println("Server error: " + e.getMessage());
-            e.printStackTrace();
         }
-        finally {
-            ss.close();
+    }
+
+    private void accept(Selector selector) throws IOException {
+        SocketChannel channel = ss.accept();
+        if (channel == null) {
+            return;
         }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Session(channel, key, threads, maxFrameBytes));
     }
 
-    private static void processOrganizerConnection(Socket cs){
-        try{
-//            ObjectInputStream inputStream = new ObjectInputStream(cs.getInputStream());
-//
-//            ObjectOutputStream outputStream = new ObjectOutputStream(cs.getOutputStream());
-            ObjectOutputStream outputStream = new ObjectOutputStream(cs.getOutputStream());
-            outputStream.flush();
+    // one organizer connection with its band and its reused buffers
+    private static final class Session {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final int threads;
+        private final FrameReader reader;
+        private final FrameWriter writer = new FrameWriter(1 << 16);
+        private Band band;
+        // for the next ack, see Packet
+        private long computeNanos;
+        private long waitNanos;
+        private long codecNanos;
+        // when the early part of the next step was done, 0 if there is none
+        private long readyAt;
+        private long lastSent = System.nanoTime();
 
-            ObjectInputStream inputStream = new ObjectInputStream(cs.getInputStream());
+        Session(SocketChannel channel, SelectionKey key, int threads, int maxFrameBytes){
+            this.channel = channel;
+            this.key = key;
+            this.threads = threads;
+            this.reader = new FrameReader(1 << 16, maxFrameBytes);
+        }
 
+        void read() throws IOException {
+            long arrived = System.nanoTime();
+            if (readyAt != 0) {
+                waitNanos += arrived - readyAt;
+                readyAt = 0;
+            }
+            if (reader.read(channel) < 0) {
+                // the organizer is done
+                close();
+                return;
+            }
+            while (true) {
+                long start = System.nanoTime();
+                Packet packet = reader.next();
+                codecNanos += System.nanoTime() - start;
+                if (packet == null) {
+                    break;
+                }
+                handle(packet);
+            }
+            write();
+            if (band != null) {
+                long start = System.nanoTime();
+                try {
+                    band.startStep();
+                } catch (InterruptedException e) {
+                    throw interrupted();
+                }
+                readyAt = System.nanoTime();
+                computeNanos += readyAt - start;
+            }
+        }
 
-            System.out.println("Waiting for packet...");
+        private void handle(Packet packet) throws IOException {
+            switch (packet.getType()) {
+                case INIT_BAND -> {
+                    closeBand();
+                    try {
+                        band = packet.getCoefficients() != null
+                                ? new Band(packet.getWidth(), packet.getHeight(), packet.getStartRow(),
+                                        packet.getEndRow(), packet.getTemperatures(), packet.getCoefficients(), threads)
+                                : new Band(packet.getWidth(), packet.getHeight(), packet.getStartRow(),
+                                        packet.getEndRow(), packet.getTemperatures(), packet.getField(), threads);
+                    } catch (InterruptedException e) {
+                        throw interrupted();
+                    }
+                    computeNanos = 0;
+                    waitNanos = 0;
+                }
+                case HALO_ROWS -> {
+                    band().setHalos(packet.getTop(), packet.getBottom());
+                    long start = System.nanoTime();
+                    double residual;
+                    try {
+                        residual = band.finishStep();
+                    } catch (InterruptedException e) {
+                        throw interrupted();
+                    }
+                    long encodeStart = System.nanoTime();
+                    computeNanos += encodeStart - start;
+                    writer.add(Packet.stepAck(residual, computeNanos, band.takeWorkNanos(), waitNanos, codecNanos, band.firstRow(), band.lastRow()));
+                    // this encode goes into the next ack
+                    codecNanos = System.nanoTime() - encodeStart;
+                    computeNanos = 0;
+                    waitNanos = 0;
+                }
+                case SNAPSHOT_REQUEST -> {
+                    band().cancelStep();
+                    // the interior gets stepped again, that time counts instead
+                    computeNanos = 0;
+                    band.takeWorkNanos();
+                    writer.add(Packet.snapshotResponse(band.copyRows()));
+                }
+                case HEARTBEAT -> writer.add(Packet.heartbeat());
+                default -> throw new IOException("unexpected " + packet.getType());
+            }
+        }
 
-            Packet packet = (Packet) inputStream.readObject();
+        void heartbeat(long now) throws IOException {
+            if (band != null && now - lastSent >= TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_MILLIS)) {
+                writer.add(Packet.heartbeat());
+                write();
+            }
+        }
 
-            System.out.println("Received Packet from client:");
+        private Band band() throws IOException {
+            if (band == null) {
+                throw new IOException("no INIT_BAND before the first step");
+            }
+            return band;
+        }
 
-            packet.computeHeatTransfer();
+        // whatever the socket does not take now goes out when it reports OP_WRITE
+        void write() throws IOException {
+            if (writer.isEmpty()) {
+                return;
+            }
+            lastSent = System.nanoTime();
+            if (writer.flush(channel)) {
+                key.interestOps(SelectionKey.OP_READ);
+            } else {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
 
-            // send the same packet back to the organizer.
-            // the organizer will then take that packet, then send the updated packet containing the grid, which we will be waiting to receive
-            outputStream.writeObject(packet);
-            outputStream.flush();
+        // the server thread was interrupted while the band's workers were stepping
+        private static IOException interrupted(){
+            Thread.currentThread().interrupt();
+            return new InterruptedIOException("interrupted while stepping the band");
+        }
 
-            outputStream.close();
-            inputStream.close();
-            cs.close();
+        private void closeBand(){
+            if (band != null) {
+                band.close();
+                band = null;
+            }
+        }
 
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Client connection error: " + e.getMessage());
-            throw new RuntimeException(e);
+        void close(){
+            closeBand();
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
         }
     }
 }
@@ -1,55 +1,85 @@
 package org.wstone.distributed;
 
+import org.wstone.concurrent.FrameBuffer;
+import org.wstone.concurrent.HeatRenderer;
+import org.wstone.concurrent.SimulationListener;
+import org.wstone.concurrent.SimulationMetrics;
+
 import javax.swing.*;
 import java.awt.*;
-import java.util.Arrays;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-public class Visualization extends JPanel {
+public class Visualization extends JPanel implements SimulationListener {
 
     // Define the grid dimensions
     private final int height;
     private final int width;
     private final int cellSize = 20;
-    private ConcurrentHashMap<String, Double> tempMap;
-    private final double s, t;
+    private final FrameBuffer frames;
+    private final HeatRenderer renderer;
+    private final AtomicBoolean repaintPending = new AtomicBoolean();
+    // gets the render times, null for none
+    private SimulationMetrics metrics;
 
-    public Visualization(ConcurrentHashMap<String, Double> tempMap, int height, int width, double s, double t) {
-        this.tempMap = tempMap;
+    public Visualization(int height, int width, double s, double t) {
+        this.frames = new FrameBuffer(height, width);
         this.height = height;
         this.width = width;
-        this.s = s;
-        this.t = t;
+        this.renderer = new HeatRenderer(height, width, s, t);
+    }
+
+    // puts a new panel in its own window. everything that touches swing lives in this class, so a headless run that
+    // never calls this never loads awt
+    public static Visualization open(String title, int height, int width, double s, double t, SimulationMetrics metrics) {
+        Visualization vis = new Visualization(height, width, s, t);
+        vis.metrics = metrics;
+        JFrame frame = new JFrame(title);
+        frame.setSize(vis.getWidth(), vis.getHeight());
+        frame.add(vis);
+        frame.setVisible(true);
+        return vis;
     }
 
+    // while a repaint is still queued the frame is dropped, the paint shows the newest frame that made it in
     @Override
-    protected void paintComponent(Graphics g) {
-        super.paintComponent(g);
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int[] p = {x,y};
-                Double color = tempMap.get(Arrays.toString(p));
-                if (color == null) g.setColor(new Color(0, 0, 255));
-                else{g.setColor(setColor(color));}
-                g.fillRect(x * cellSize, y * cellSize, cellSize, cellSize);
-            }
+    public void onSnapshot(int iteration, double residual, double[] temperatures) {
+        if (!repaintPending.get()) {
+            System.arraycopy(temperatures, 0, frames.backBuffer(), 0, temperatures.length);
+            frames.publish();
+            requestRepaint();
         }
     }
 
-    private Color setColor(double d) {
-        double b = Math.min(s, t);
-        d = Math.max(0, Math.min(b, d));
+    @Override
+    public void onFinished(int iterations, double residual, double[] temperatures) {
+        System.arraycopy(temperatures, 0, frames.backBuffer(), 0, temperatures.length);
+        frames.publish();
+        requestRepaint();
+    }
 
-        int red = (int) (255 * (d / b));
-        int blue = (int) (255 * (1 - d / b));
+    // safe to call from any thread. while a repaint is still queued further requests are dropped, the paint picks up
+    // whatever frame is newest by then, so the simulation never waits on the EDT. swing drops repaints of a panel
+    // that is not on screen, those would leave the flag set forever
+    public void requestRepaint() {
+        if (isShowing() && repaintPending.compareAndSet(false, true)) {
+            repaint();
+        }
+    }
 
-        return new Color(red, 0, blue);
+    @Override
+    protected void paintComponent(Graphics g) {
+        repaintPending.set(false);
+        super.paintComponent(g);
+        long start = System.nanoTime();
+        g.drawImage(renderer.render(frames.latest()), 0, 0, width * cellSize, height * cellSize, null);
+        if (metrics != null) {
+            metrics.renderDone(System.nanoTime() - start);
+        }
     }
 
 
-    public int getHeight(){ return height;}
-    public int getWidth(){return width;}
+    public int getHeight(){ return height * cellSize;}
+    public int getWidth(){return width * cellSize;}
 
     public static void main(String[] args) {
         // Create the JFrame
@@ -0,0 +1,40 @@
+package org.wstone.concurrent;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BandRunnerTest {
+
+    // a band that throws used to leave its PERSISTENT_WORKERS thread dead and the caller waiting on the phaser forever
+    @ParameterizedTest
+    @EnumSource(ExecutionMode.class)
+    void failingBandIsRethrownOnTheCaller(ExecutionMode mode){
+        try (BandRunner runner = BandRunner.create(mode, 100, 4, WaitStrategy.spinThenPark(1 << 10))) {
+            IllegalStateException thrown = assertTimeoutPreemptively(Duration.ofSeconds(5), () ->
+                    assertThrows(IllegalStateException.class, () -> runner.run((band, startRow, endRow) -> {
+                        if (band == 2) {
+                            throw new IllegalStateException("band 2");
+                        }
+                        return band;
+                    })));
+            assertEquals("band 2", thrown.getMessage());
+
+            // the workers are still there for the next run and the failure does not stick
+            double residual = assertTimeoutPreemptively(Duration.ofSeconds(5), () -> runner.run((band, startRow, endRow) -> band));
+            assertEquals(3.0, residual);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(ExecutionMode.class)
+    void sumsAndMaxesOverTheBands(ExecutionMode mode) throws InterruptedException {
+        try (BandRunner runner = BandRunner.create(mode, 100, 4, WaitStrategy.blocking())) {
+            assertEquals(100.0, runner.runAndSum((band, startRow, endRow) -> endRow - startRow));
+            assertEquals(99.0, runner.run((band, startRow, endRow) -> endRow - 1));
+        }
+    }
+}
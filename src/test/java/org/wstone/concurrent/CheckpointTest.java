@@ -0,0 +1,60 @@
+package org.wstone.concurrent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CheckpointTest {
+
+    // a checkpoint every step keeps the writer busy, the one at the end must still make it to disk
+    @Test
+    void lastCheckpointIsWrittenEvenWhileTheWriterIsBusy(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("plate.ckpt");
+        Simulation.Alloy alloy = new Simulation().new Alloy(new FlatGrid(120, 80, new CoefficientField(3, 1.0, 1.0, 1.0), StepMode.IN_PLACE), 1000.0, 800.0, 47);
+        alloy.setCheckpointing(1, file);
+        alloy.setLogSchedule(SnapshotSchedule.never());
+        alloy.simulateHeatTransfer();
+        alloy.shutdown();
+        try (CheckpointFile checkpoint = CheckpointFile.open(file)) {
+            assertEquals(47, checkpoint.getIteration());
+        }
+    }
+
+    // a mapped run is synced once at its end, whatever the interval, and can be resumed from there
+    @Test
+    void mappedRunCanBeResumedFromItsEnd(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("plate.map");
+        MappedGrid grid = MappedGrid.create(file, 40, 30, 1000.0, 800.0, new CoefficientField(3, 1.0, 1.0, 1.0));
+        Simulation.Alloy alloy = new Simulation().new Alloy(grid, 1000.0, 800.0, 23);
+        alloy.setCheckpointing(5, null);
+        alloy.setLogSchedule(SnapshotSchedule.never());
+        alloy.simulateHeatTransfer();
+        alloy.shutdown();
+        grid.getFile().close();
+        try (CheckpointFile checkpoint = CheckpointFile.open(file)) {
+            assertEquals(23, checkpoint.getIteration());
+        }
+    }
+
+    // stepping a mapped plate in place, only a run that finished leaves a file that can be opened again
+    @Test
+    void mappedPlateIsOnlyResumedAfterAFinishedRun(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("plate.map");
+        MappedGrid grid = MappedGrid.create(file, 30, 20, 1000.0, 800.0, new CoefficientField(3, 1.0, 1.0, 1.0));
+        grid.start();
+        grid.computeHeatTransfer(0, 10);
+        // the run dies here
+        IOException e = assertThrows(IOException.class, () -> CheckpointFile.open(file));
+        assertTrue(e.getMessage().contains("torn"));
+
+        grid.finish(1);
+        grid.getFile().close();
+        try (CheckpointFile checkpoint = CheckpointFile.open(file)) {
+            assertEquals(1, checkpoint.getIteration());
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package org.wstone.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EnsembleTest {
+    private static final int WIDTH = 14;
+    private static final int HEIGHT = 11;
+    private static final int ITERATIONS = 1500;
+    private static final double TOLERANCE = 1e-2;
+
+    // high coefficients settle first, so plate 0 converges while the others keep stepping next to it
+    private static final CoefficientField[] FIELDS = {
+            new CoefficientField(1, 1.5, 1.5, 1.5),
+            new CoefficientField(2, 0.5, 0.4, 0.6),
+            new CoefficientField(3, 0.2, 0.2, 0.2)};
+
+    /*
+     * what Alloy does with the same plate: the default IN_PLACE FlatGrid until the residual drops below the tolerance.
+     * stepped as one band, with several the in-place result depends on the threads' timing. returns the iterations
+     */
+    private static int alone(FlatGrid grid){
+        for (int iteration = 1; iteration <= ITERATIONS; iteration++) {
+            if (grid.computeHeatTransfer(0, HEIGHT) < TOLERANCE) {
+                return iteration;
+            }
+        }
+        return ITERATIONS;
+    }
+
+    // three plates share a chunk with 13 padding lanes, each must come out exactly as if it ran on its own
+    @Test
+    void platesComeOutAsTheyWouldAlone(){
+        Ensemble ensemble = new Ensemble(HEIGHT, WIDTH, FIELDS.length);
+        for (int p = 0; p < FIELDS.length; p++) {
+            ensemble.setPlate(p, 1000.0, 800.0, FIELDS[p]);
+        }
+        ensemble.setIterations(ITERATIONS);
+        ensemble.setTolerance(TOLERANCE);
+        ForkJoinPool pool = new ForkJoinPool(2);
+        List<Ensemble.Result> results;
+        try {
+            results = ensemble.run(pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertTrue(results.get(0).isConverged());
+        assertTrue(results.get(0).getIterations() < results.get(FIELDS.length - 1).getIterations());
+        double[] plate = new double[WIDTH * HEIGHT];
+        double[] expected = new double[WIDTH * HEIGHT];
+        for (int p = 0; p < FIELDS.length; p++) {
+            FlatGrid grid = new FlatGrid(HEIGHT, WIDTH, FIELDS[p], StepMode.IN_PLACE);
+            grid.setTemperature(0, 0, 1000.0);
+            grid.setTemperature(WIDTH - 1, HEIGHT - 1, 800.0);
+            int iterations = alone(grid);
+            grid.copyTemperatures(expected);
+            ensemble.copyTemperatures(p, plate);
+            assertEquals(iterations, results.get(p).getIterations(), "plate " + p);
+            assertArrayEquals(expected, plate, "plate " + p);
+        }
+    }
+}
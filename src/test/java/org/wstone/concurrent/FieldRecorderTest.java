@@ -0,0 +1,119 @@
+package org.wstone.concurrent;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FieldRecorderTest {
+    private static final int WIDTH = 9;
+    private static final int HEIGHT = 7;
+
+    private static float half(double value){
+        return FieldRecorder.fromHalf(FieldRecorder.toHalf((float) value));
+    }
+
+    @Test
+    void halfKeepsWhatItCanRepresent(){
+        for (float value : new float[]{0.0f, -0.0f, 1.0f, -2.0f, 0.5f, 1000.0f, 65504.0f, 0x1p-14f, 0x1p-24f, 0x3ffp-24f}) {
+            assertEquals(Float.floatToIntBits(value), Float.floatToIntBits(half(value)), "" + value);
+        }
+        assertEquals(Float.POSITIVE_INFINITY, half(65520.0));
+        assertEquals(Float.NEGATIVE_INFINITY, half(Double.NEGATIVE_INFINITY));
+        assertTrue(Float.isNaN(half(Double.NaN)));
+        assertEquals(0.0f, half(0x1p-26f));
+    }
+
+    @Test
+    void halfRoundsToNearestEven(){
+        // halfway between 1 and the next half, 1 is even
+        assertEquals(1.0f, half(1 + 0x1p-11));
+        // halfway between 1 + 2^-10, which is odd, and 1 + 2^-9
+        assertEquals(1 + 0x1p-9f, half(1 + 3 * 0x1p-11));
+        assertEquals(1 + 0x1p-10f, half(1 + 0x1p-11 + 0x1p-20));
+        // a carry out of the mantissa goes into the exponent
+        assertEquals(2.0f, half(2 - 0x1p-12));
+        // the same in the subnormals, in steps of 2^-24
+        assertEquals(0x2p-24f, half(0x2.8p-24));
+        assertEquals(0x4p-24f, half(0x3.8p-24));
+        Random random = new Random(1);
+        for (int i = 0; i < 100_000; i++) {
+            double value = (random.nextDouble() - 0.5) * 2000;
+            assertEquals(value, half(value), Math.abs(value) * 0x1p-11 + 0x1p-25);
+        }
+    }
+
+    // every frame comes back as the float16 of what went in, keyframes and deltas alike
+    @Test
+    void recordingRoundTrips(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("field.rec");
+        int frames = FieldRecorder.KEYFRAME_INTERVAL + 10;
+        double[][] fields = new double[frames][WIDTH * HEIGHT];
+        Random random = new Random(2);
+        try (FieldRecorder recorder = new FieldRecorder(file, WIDTH, HEIGHT, 2)) {
+            for (int f = 0; f < frames; f++) {
+                for (int i = 0; i < fields[f].length; i++) {
+                    // mostly unchanged cells, so there are runs of zeros as well
+                    fields[f][i] = f > 0 && random.nextInt(4) > 0 ? fields[f - 1][i] : random.nextDouble() * 1000;
+                }
+                // onFinished waits for a free buffer, onSnapshot could drop a frame
+                recorder.onFinished(f * 10, f * 0.5, fields[f]);
+            }
+        }
+        try (FieldRecorder.Reader reader = FieldRecorder.Reader.open(file)) {
+            assertEquals(WIDTH, reader.getWidth());
+            assertEquals(HEIGHT, reader.getHeight());
+            double[] field = new double[WIDTH * HEIGHT];
+            for (int f = 0; f < frames; f++) {
+                assertTrue(reader.next(field));
+                assertEquals(f * 10, reader.getIteration());
+                assertEquals(f * 0.5, reader.getResidual());
+                for (int i = 0; i < field.length; i++) {
+                    assertEquals(half(fields[f][i]), field[i], "frame " + f + " cell " + i);
+                }
+            }
+            assertFalse(reader.next(field));
+        }
+    }
+
+    // a payload size no frame can have is a corrupt file, not an allocation
+    @Test
+    void corruptFrameSizeIsRefused(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("field.rec");
+        try (FieldRecorder recorder = new FieldRecorder(file, WIDTH, HEIGHT, 1)) {
+            recorder.onFinished(1, 0.0, new double[WIDTH * HEIGHT]);
+        }
+        for (int size : new int[]{-1, Integer.MAX_VALUE, 3 * WIDTH * HEIGHT + 1}) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(0, size), FieldRecorder.HEADER_BYTES);
+            }
+            try (FieldRecorder.Reader reader = FieldRecorder.Reader.open(file)) {
+                assertThrows(IOException.class, () -> reader.next(new double[WIDTH * HEIGHT]), "size " + size);
+            }
+        }
+    }
+
+    // a run length past the last cell
+    @Test
+    void frameRunningPastThePlateIsRefused(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("field.rec");
+        try (FieldRecorder recorder = new FieldRecorder(file, WIDTH, HEIGHT, 1)) {
+            recorder.onFinished(1, 0.0, new double[WIDTH * HEIGHT]);
+        }
+        // an all 0 keyframe is one run, a 0 and then the count as a varint
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, (byte) (WIDTH * HEIGHT + 1)}), FieldRecorder.HEADER_BYTES + FieldRecorder.FRAME_HEADER_BYTES);
+        }
+        try (FieldRecorder.Reader reader = FieldRecorder.Reader.open(file)) {
+            assertThrows(IOException.class, () -> reader.next(new double[WIDTH * HEIGHT]));
+        }
+    }
+}
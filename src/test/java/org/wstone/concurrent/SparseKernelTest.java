@@ -0,0 +1,56 @@
+package org.wstone.concurrent;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SparseKernelTest {
+    // large enough that far from the sources the cells stay exactly 0 for a few steps, so there are sleeping tiles
+    // for the in-place front to run into
+    private static final int WIDTH = 400;
+    private static final int HEIGHT = 500;
+
+    // a cold plate with the two hot corners, the same array twice when stepping in place
+    private static double[][] plate(StepMode mode){
+        double[] t = new double[WIDTH * HEIGHT];
+        t[0] = 1000.0;
+        t[t.length - 1] = 800.0;
+        return new double[][]{t, mode == StepMode.DOUBLE_BUFFERED ? t.clone() : t};
+    }
+
+    // skipping a tile must never change a single bit, including in place where a step carries a change across many
+    // tiles
+    @ParameterizedTest
+    @CsvSource({
+            "IN_PLACE, 1", "IN_PLACE, 2", "IN_PLACE, 4", "IN_PLACE, 16",
+            "DOUBLE_BUFFERED, 1", "DOUBLE_BUFFERED, 2", "DOUBLE_BUFFERED, 4", "DOUBLE_BUFFERED, 16"})
+    void skippingIsTheDenseSweep(StepMode mode, int tileSize){
+        // low, so the in-place front dies out within the plate, and stable for Jacobi
+        double[] coef = new double[WIDTH * HEIGHT];
+        new CoefficientField(5, 0.2, 0.2, 0.2).fill(coef, 0, WIDTH, 0, HEIGHT);
+        double[][] dense = plate(mode);
+        double[][] sparse = plate(mode);
+        StencilKernel plain = new ScalarKernel();
+        SparseKernel kernel = new SparseKernel(WIDTH, HEIGHT, tileSize);
+        for (int step = 1; step <= 60; step++) {
+            double denseResidual = plain.sweep(dense[0], dense[1], coef, WIDTH, HEIGHT, 0, HEIGHT);
+            double sparseResidual = kernel.sweep(sparse[0], sparse[1], coef, WIDTH, HEIGHT, 0, HEIGHT);
+            kernel.stepDone();
+            assertArrayEquals(dense[1], sparse[1], "step " + step);
+            assertEquals(denseResidual, sparseResidual, "step " + step);
+            if (mode == StepMode.DOUBLE_BUFFERED) {
+                swap(dense);
+                swap(sparse);
+            }
+        }
+        // it did skip something
+        assertTrue(kernel.getSweptFraction() < 1.0);
+    }
+
+    private static void swap(double[][] buffers){
+        double[] tmp = buffers[0];
+        buffers[0] = buffers[1];
+        buffers[1] = tmp;
+    }
+}
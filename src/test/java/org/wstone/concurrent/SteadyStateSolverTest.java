@@ -0,0 +1,48 @@
+package org.wstone.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SteadyStateSolverTest {
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    private static FlatGrid solve(SteadyStateSolver.Method method, int bands) throws InterruptedException {
+        FlatGrid grid = new FlatGrid(HEIGHT, WIDTH, new CoefficientField(9, 1.0, 1.0, 1.0), StepMode.IN_PLACE);
+        grid.setTemperature(0, 0, 1000.0);
+        grid.setTemperature(WIDTH - 1, HEIGHT - 1, 800.0);
+        try (BandRunner runner = BandRunner.create(ExecutionMode.PERSISTENT_WORKERS, HEIGHT, bands, WaitStrategy.blocking())) {
+            SteadyStateSolver solver = new SteadyStateSolver(grid, runner, method);
+            solver.setTolerance(1e-10);
+            assertTrue(solver.solve() < 1e-10, method + " did not converge");
+        }
+        return grid;
+    }
+
+    // both methods end on the same equilibrium, the one explicit steps settle on
+    @Test
+    void methodsAgreeOnTheEquilibrium() throws InterruptedException {
+        FlatGrid sor = solve(SteadyStateSolver.Method.SOR, 3);
+        FlatGrid multigrid = solve(SteadyStateSolver.Method.MULTIGRID, 3);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(sor.getTemperature(x, y), multigrid.getTemperature(x, y), 1e-5, "cell " + x + ", " + y);
+            }
+        }
+        // one more explicit step barely moves it
+        assertTrue(multigrid.computeHeatTransfer(0, HEIGHT) < 1e-9);
+    }
+
+    // the four colors make a sweep independent of how the rows are split
+    @Test
+    void sorDoesNotDependOnTheBands() throws InterruptedException {
+        FlatGrid one = solve(SteadyStateSolver.Method.SOR, 1);
+        FlatGrid four = solve(SteadyStateSolver.Method.SOR, 4);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(one.getTemperature(x, y), four.getTemperature(x, y), "cell " + x + ", " + y);
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.wstone.concurrent;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TimeIntegratorTest {
+    private static final int WIDTH = 24;
+    private static final int HEIGHT = 18;
+
+    // coefficients up to about 0.96, so dt = 1 is still a stable explicit step
+    private static FlatGrid plate(StepMode mode){
+        FlatGrid grid = new FlatGrid(HEIGHT, WIDTH, new CoefficientField(4, 0.8, 0.8, 0.8), mode);
+        grid.setTemperature(0, 0, 1000.0);
+        grid.setTemperature(WIDTH - 1, HEIGHT - 1, 800.0);
+        return grid;
+    }
+
+    private static BandRunner runner(){
+        return BandRunner.create(ExecutionMode.PERSISTENT_WORKERS, HEIGHT, 3, WaitStrategy.blocking());
+    }
+
+    // steps until the rate of change is below the tolerance, returns the steps it took
+    private static int settle(TimeIntegrator integrator) throws InterruptedException {
+        for (int step = 1; step <= 200_000; step++) {
+            if (integrator.step() < 1e-10) {
+                return step;
+            }
+        }
+        return fail("did not settle with " + integrator.getScheme() + " steps of dt " + integrator.getTimeStep());
+    }
+
+    @Test
+    void implicitStepsFarAboveTheStableStepReachTheSameEquilibrium() throws InterruptedException {
+        FlatGrid explicit = plate(StepMode.IN_PLACE);
+        FlatGrid implicit = plate(StepMode.IN_PLACE);
+        try (BandRunner runner = runner()) {
+            TimeIntegrator small = new TimeIntegrator(explicit, runner, 0.5, TimeIntegrator.Scheme.AUTO);
+            assertEquals(TimeIntegrator.Scheme.EXPLICIT, small.getScheme());
+            int explicitSteps = settle(small);
+
+            double dt = 20 * small.getStableTimeStep();
+            TimeIntegrator large = new TimeIntegrator(implicit, runner, dt, TimeIntegrator.Scheme.AUTO);
+            assertEquals(TimeIntegrator.Scheme.IMPLICIT, large.getScheme());
+            int implicitSteps = settle(large);
+            assertTrue(implicitSteps < explicitSteps, implicitSteps + " implicit against " + explicitSteps + " explicit steps");
+        }
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                assertEquals(explicit.getTemperature(x, y), implicit.getTemperature(x, y), 1e-6, "cell " + x + ", " + y);
+            }
+        }
+    }
+
+    @Test
+    void explicitStepsAboveTheStableStepAreRefused(){
+        try (BandRunner runner = runner()) {
+            double stable = new TimeIntegrator(plate(StepMode.IN_PLACE), runner, 0.1, TimeIntegrator.Scheme.EXPLICIT).getStableTimeStep();
+            assertThrows(IllegalArgumentException.class,
+                    () -> new TimeIntegrator(plate(StepMode.IN_PLACE), runner, 1.5 * stable, TimeIntegrator.Scheme.EXPLICIT));
+        }
+    }
+
+    // an explicit step of dt = 1 is the Jacobi step a double buffered plate takes
+    @Test
+    void explicitUnitStepIsTheDoubleBufferedStep() throws InterruptedException {
+        FlatGrid integrated = plate(StepMode.IN_PLACE);
+        FlatGrid jacobi = plate(StepMode.DOUBLE_BUFFERED);
+        double[] expected = new double[WIDTH * HEIGHT];
+        double[] actual = new double[WIDTH * HEIGHT];
+        try (BandRunner runner = runner()) {
+            TimeIntegrator integrator = new TimeIntegrator(integrated, runner, 1.0, TimeIntegrator.Scheme.EXPLICIT);
+            for (int step = 1; step <= 200; step++) {
+                double rate = integrator.step();
+                double residual = jacobi.computeHeatTransfer(0, HEIGHT);
+                jacobi.swapBuffers();
+                integrated.copyTemperatures(actual);
+                jacobi.copyTemperatures(expected);
+                assertArrayEquals(expected, actual, "step " + step);
+                assertEquals(residual, rate, "step " + step);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package org.wstone.distributed;
+
+import org.junit.jupiter.api.Test;
+import org.wstone.concurrent.CoefficientField;
+import org.wstone.concurrent.ScalarKernel;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BandTest {
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 60;
+    private static final CoefficientField FIELD = new CoefficientField(9, 1.25, 1.0, 1.75);
+
+    private static double[] coldPlate(){
+        double[] t = new double[WIDTH * HEIGHT];
+        t[0] = 1000.0;
+        t[t.length - 1] = 800.0;
+        return t;
+    }
+
+    private static Band band(double[] plate, int startRow, int endRow, int threads) throws InterruptedException {
+        return new Band(WIDTH, HEIGHT, startRow, endRow, Arrays.copyOfRange(plate, startRow * WIDTH, endRow * WIDTH), FIELD, threads);
+    }
+
+    // two bands stepped the way the organizer does it, with a started and cancelled step now and then
+    private static double[] run(int threads, int steps) throws InterruptedException {
+        double[] plate = coldPlate();
+        try (Band top = band(plate, 0, 35, threads); Band bottom = band(plate, 35, HEIGHT, threads)) {
+            double[] above = bottom.firstRow();
+            double[] below = top.lastRow();
+            for (int s = 0; s < steps; s++) {
+                if (s % 50 == 7) {
+                    top.startStep();
+                    top.cancelStep();
+                }
+                top.setHalos(null, above);
+                bottom.setHalos(below, null);
+                top.finishStep();
+                bottom.finishStep();
+                above = bottom.firstRow();
+                below = top.lastRow();
+            }
+            double[] out = new double[WIDTH * HEIGHT];
+            System.arraycopy(top.copyRows(), 0, out, 0, 35 * WIDTH);
+            System.arraycopy(bottom.copyRows(), 0, out, 35 * WIDTH, (HEIGHT - 35) * WIDTH);
+            return out;
+        }
+    }
+
+    // the single threaded band order: interior rows top to bottom, then the first and the last row
+    @Test
+    void oneThreadStepsLikeASingleArray() throws InterruptedException {
+        double[] coefficients = new double[WIDTH * HEIGHT];
+        FIELD.fill(coefficients, 0, WIDTH, 0, HEIGHT);
+        double[] expected = coldPlate();
+        try (Band band = band(expected.clone(), 0, HEIGHT, 1)) {
+            for (int s = 0; s < 200; s++) {
+                for (int y = 1; y < HEIGHT - 1; y++) {
+                    ScalarKernel.row(expected, expected, coefficients, y * WIDTH, WIDTH, y, 0, WIDTH, WIDTH, HEIGHT);
+                }
+                ScalarKernel.row(expected, expected, coefficients, 0, WIDTH, 0, 0, WIDTH, WIDTH, HEIGHT);
+                ScalarKernel.row(expected, expected, coefficients, (HEIGHT - 1) * WIDTH, WIDTH, HEIGHT - 1, 0, WIDTH, WIDTH, HEIGHT);
+                band.finishStep();
+            }
+            assertArrayEquals(expected, band.copyRows());
+        }
+    }
+
+    @Test
+    void slabsDoNotDependOnTiming() throws InterruptedException {
+        double[] first = run(4, 300);
+        assertArrayEquals(first, run(4, 300));
+        assertArrayEquals(run(7, 300), run(7, 300));
+    }
+
+    @Test
+    void inconsistentGeometryIsRefusedUpFront(){
+        assertThrows(IllegalArgumentException.class, () -> new Band(WIDTH, HEIGHT, 10, 20, new double[9 * WIDTH], FIELD, 4));
+        assertThrows(IllegalArgumentException.class, () -> new Band(WIDTH, HEIGHT, 50, 70, new double[20 * WIDTH], FIELD, 4));
+        assertThrows(IllegalArgumentException.class, () -> new Band(WIDTH, HEIGHT, 20, 20, new double[0], FIELD, 4));
+        assertThrows(IllegalArgumentException.class, () -> new Band(WIDTH, HEIGHT, 0, 10, new double[10 * WIDTH], new double[5], 4));
+    }
+}
@@ -0,0 +1,47 @@
+package org.wstone.distributed;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionTest {
+
+    /*
+     * a listener that never accepts and whose backlog is full drops every new syn, to a client that looks like a host
+     * that is down. connecting has to give up after the timeout like it would on a silent server
+     */
+    @Test
+    void connectingToASilentHostTimesOut() throws IOException {
+        List<Socket> queued = new ArrayList<>();
+        try (ServerSocket silent = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), silent.getLocalPort());
+            // fill the backlog, what goes past it hangs
+            try {
+                for (int i = 0; i < 16; i++) {
+                    Socket socket = new Socket();
+                    queued.add(socket);
+                    socket.connect(address, 200);
+                }
+            } catch (SocketTimeoutException full) {
+                // from here on a connect is not answered
+            }
+            assertTimeoutPreemptively(Duration.ofSeconds(5),
+                    () -> assertThrows(SocketTimeoutException.class, () -> new Connection(address, 300, TimeUnit.MILLISECONDS)));
+        } finally {
+            for (Socket socket : queued) {
+                socket.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.wstone.distributed;
+
+import org.junit.jupiter.api.Test;
+import org.wstone.concurrent.CoefficientField;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacketCodecTest {
+
+    // the whole frame, length field included
+    private static ByteBuffer encode(Packet p){
+        ByteBuffer buf = ByteBuffer.allocate(PacketCodec.encodedSize(p)).order(ByteOrder.LITTLE_ENDIAN);
+        PacketCodec.encode(p, buf);
+        assertFalse(buf.hasRemaining());
+        return buf.flip();
+    }
+
+    // what decode() gets handed, everything after the length field
+    private static ByteBuffer body(ByteBuffer frame){
+        return frame.slice(Integer.BYTES, frame.limit() - Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static Packet roundTrip(Packet p) throws IOException {
+        return PacketCodec.decode(body(encode(p)));
+    }
+
+    @Test
+    void everyTypeSurvivesTheWire() throws IOException {
+        double[] rows = {1.5, -0.25, 1000.0, Double.MIN_VALUE, 0.0, 3.0};
+        Packet init = roundTrip(Packet.initBand(3, 4, 1, 3, rows, new double[]{1.0, 1.25, 1.5, 1.75, 2.0, 2.25}));
+        assertEquals(Packet.Type.INIT_BAND, init.getType());
+        assertEquals(3, init.getWidth());
+        assertEquals(4, init.getHeight());
+        assertEquals(1, init.getStartRow());
+        assertEquals(3, init.getEndRow());
+        assertArrayEquals(rows, init.getTemperatures());
+        assertArrayEquals(new double[]{1.0, 1.25, 1.5, 1.75, 2.0, 2.25}, init.getCoefficients());
+
+        Packet drawn = roundTrip(Packet.initBand(3, 4, 1, 3, rows, new CoefficientField(42, 1.25, 1.0, 1.75)));
+        assertNull(drawn.getCoefficients());
+        assertEquals(42, drawn.getField().getSeed());
+        assertEquals(1.25, drawn.getField().getC1());
+        assertEquals(1.0, drawn.getField().getC2());
+        assertEquals(1.75, drawn.getField().getC3());
+
+        // a null row is the edge of the plate
+        Packet halos = roundTrip(Packet.haloRows(null, new double[]{7.0, 8.0}));
+        assertNull(halos.getTop());
+        assertArrayEquals(new double[]{7.0, 8.0}, halos.getBottom());
+
+        Packet ack = roundTrip(Packet.stepAck(0.125, 1, 2, 3, 4, new double[]{1.0}, new double[]{2.0}));
+        assertEquals(0.125, ack.getResidual());
+        assertEquals(1, ack.getComputeNanos());
+        assertEquals(2, ack.getWorkNanos());
+        assertEquals(3, ack.getWaitNanos());
+        assertEquals(4, ack.getCodecNanos());
+        assertArrayEquals(new double[]{1.0}, ack.getTop());
+        assertArrayEquals(new double[]{2.0}, ack.getBottom());
+
+        assertArrayEquals(rows, roundTrip(Packet.snapshotResponse(rows)).getTemperatures());
+        assertEquals(Packet.Type.SNAPSHOT_REQUEST, roundTrip(Packet.snapshotRequest()).getType());
+        assertEquals(Packet.Type.HEARTBEAT, roundTrip(Packet.heartbeat()).getType());
+    }
+
+    @Test
+    void corruptFramesAreRefused(){
+        ByteBuffer version = encode(Packet.heartbeat());
+        version.put(Integer.BYTES, (byte) (PacketCodec.VERSION + 1));
+        assertThrows(IOException.class, () -> PacketCodec.decode(body(version)));
+
+        ByteBuffer type = encode(Packet.heartbeat());
+        type.put(Integer.BYTES + 1, (byte) Packet.Type.values().length);
+        assertThrows(IOException.class, () -> PacketCodec.decode(body(type)));
+
+        // cut off in the middle of the doubles
+        ByteBuffer cut = encode(Packet.snapshotResponse(new double[]{1.0, 2.0, 3.0}));
+        ByteBuffer truncated = cut.slice(Integer.BYTES, cut.limit() - Integer.BYTES - 4).order(ByteOrder.LITTLE_ENDIAN);
+        assertThrows(IOException.class, () -> PacketCodec.decode(truncated));
+
+        // more than the payload
+        ByteBuffer frame = encode(Packet.heartbeat());
+        ByteBuffer padded = ByteBuffer.allocate(frame.limit() + 8).order(ByteOrder.LITTLE_ENDIAN).put(frame).clear();
+        assertThrows(IOException.class, () -> PacketCodec.decode(body(padded)));
+    }
+
+    // a count of doubles far beyond the frame must not be allocated before the frame runs out
+    @Test
+    void arrayCountBeyondTheFrameIsRefused(){
+        ByteBuffer frame = encode(Packet.snapshotResponse(new double[]{1.0, 2.0}));
+        frame.putInt(PacketCodec.HEADER_BYTES, Integer.MAX_VALUE);
+        assertThrows(IOException.class, () -> PacketCodec.decode(body(frame)));
+        frame.putInt(PacketCodec.HEADER_BYTES, -2);
+        assertThrows(IOException.class, () -> PacketCodec.decode(body(frame)));
+    }
+
+    @Test
+    void initBandMustFitItsPlate(){
+        // rows past the bottom of the plate
+        ByteBuffer outside = encode(Packet.initBand(4, 3, 2, 4, new double[8], new double[8]));
+        assertThrows(IOException.class, () -> PacketCodec.decode(body(outside)));
+        // arrays that are not (endRow - startRow) * width
+        ByteBuffer tooShort = encode(Packet.initBand(4, 3, 0, 2, new double[7], new double[7]));
+        assertThrows(IOException.class, () -> PacketCodec.decode(body(tooShort)));
+        ByteBuffer mismatched = encode(Packet.initBand(4, 3, 0, 2, new double[8], new double[4]));
+        assertThrows(IOException.class, () -> PacketCodec.decode(body(mismatched)));
+        // and one that does fit goes through
+        assertDoesNotThrow(() -> PacketCodec.decode(body(encode(Packet.initBand(4, 3, 0, 2, new double[8], new double[8])))));
+    }
+
+    // the length field alone must not make the reader grow past the largest band
+    @Test
+    void frameLongerThanTheCapIsRefused() throws IOException {
+        int cap = PacketCodec.maxFrameBytes(16);
+        FrameReader reader = new FrameReader(64, cap);
+        ByteBuffer header = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).putInt(cap).flip();
+        reader.read(Channels.newChannel(new ByteArrayInputStream(header.array())));
+        assertThrows(IOException.class, reader::next);
+
+        // a band right at the cap is fine
+        FrameReader fits = new FrameReader(64, cap);
+        ByteBuffer frame = encode(Packet.initBand(4, 4, 0, 4, new double[16], new double[16]));
+        assertEquals(cap, frame.remaining());
+        ReadableByteChannel channel = Channels.newChannel(new ByteArrayInputStream(frame.array()));
+        Packet p = null;
+        while (p == null) {
+            assertTrue(fits.read(channel) >= 0);
+            p = fits.next();
+        }
+        assertEquals(Packet.Type.INIT_BAND, p.getType());
+    }
+}
@@ -0,0 +1,56 @@
+package org.wstone.distributed;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerTest {
+
+    private static int startServer(int threads) throws IOException {
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        }
+        Server server = new Server(port, threads);
+        Thread thread = new Thread(() -> {
+            try {
+                server.listen();
+            } catch (IOException ignored) {
+            }
+        }, "server-" + port);
+        thread.setDaemon(true);
+        thread.start();
+        return port;
+    }
+
+    // a band whose rows do not match its temperatures ends that session, the server keeps serving the others
+    @Test
+    void badBandClosesOnlyItsSession() throws IOException {
+        for (int threads : new int[]{1, 4}) {
+            int port = startServer(threads);
+            InetSocketAddress address = new InetSocketAddress("127.0.0.1", port);
+            assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+                try (Connection bad = new Connection(address, 2, TimeUnit.SECONDS)) {
+                    bad.send(Packet.initBand(10, 10, 0, 5, new double[7], new double[7]));
+                    bad.send(Packet.haloRows(null, new double[10]));
+                    assertThrows(EOFException.class, bad::receive);
+                }
+                try (Connection good = new Connection(address, 2, TimeUnit.SECONDS)) {
+                    good.ping();
+                    good.send(Packet.initBand(10, 10, 0, 5, new double[50], new double[50]));
+                    good.send(Packet.haloRows(null, new double[10]));
+                    Packet ack = good.receive();
+                    assertEquals(Packet.Type.STEP_ACK, ack.getType());
+                    assertEquals(10, ack.getTop().length);
+                }
+            });
+        }
+    }
+}